@@ -0,0 +1,68 @@
+package sunyu.util.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sunyu.util.TDengineUtil;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程并发 appendInsert 的吞吐量，对比不同的缓冲区数量
+ * <p>
+ * 刷写由后台线程完成，写到假数据源
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class AppendContentionBenchmark {
+    @State(Scope.Benchmark)
+    public static class Shared {
+        @Param({"1", "8"})
+        public int bufferCount;
+
+        @Param({"1", "4"})
+        public int flushThreads;
+
+        TDengineUtil tDengineUtil;
+
+        @Setup
+        public void setup() {
+            tDengineUtil = TDengineUtil.builder().dataSource(new FakeJdbc(0, 0).getDataSource())
+                    .setBufferCount(bufferCount).setFlushThreads(flushThreads).build();
+        }
+
+        @TearDown
+        public void tearDown() {
+            tDengineUtil.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Local {
+        Map<String, Object>[] rows;
+        String[] tableNames;
+        int i;
+
+        @Setup
+        @SuppressWarnings("unchecked")
+        public void setup() {
+            rows = new Map[1024];
+            tableNames = new String[1024];
+            long thread = Thread.currentThread().getId();
+            for (int r = 0; r < rows.length; r++) {
+                rows[r] = Rows.fields(r, 10);
+                rows[r].put("did", "test" + thread + "_" + (r % 100));
+                tableNames[r] = "test" + thread + "_" + (r % 100);
+            }
+        }
+    }
+
+    @Benchmark
+    public void appendInsert(Shared shared, Local local) {
+        int r = local.i++ & 1023;
+        shared.tDengineUtil.appendInsert("frequent", "d_p", local.tableNames[r], local.rows[r]);
+    }
+}
@@ -0,0 +1,207 @@
+package sunyu.util.benchmark;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内的假JDBC实现，不需要网络
+ * <p>
+ * 写入语句只记录条数和字节数，查询语句返回预先生成的合成数据
+ * <p>
+ * 使用动态代理实现，每次方法调用有固定的开销，对比不同版本时这部分开销是相同的
+ */
+public class FakeJdbc {
+    private final LongAdder executedSql = new LongAdder();
+    private final LongAdder executedBytes = new LongAdder();
+    private final int rowCount;
+    private final String[] columnNames;
+    private final int[] columnTypes;
+    private final Object[][] columnValues;
+    private final DataSource dataSource;
+
+    /**
+     * @param rowCount    查询返回的行数
+     * @param columnCount 查询返回的列数，第一列为时间戳，之后依次为 double、int、varchar、boolean、bigint 循环
+     */
+    public FakeJdbc(int rowCount, int columnCount) {
+        this.rowCount = rowCount;
+        columnNames = new String[columnCount];
+        columnTypes = new int[columnCount];
+        columnValues = new Object[columnCount][];
+        int[] types = {Types.DOUBLE, Types.INTEGER, Types.VARCHAR, Types.BOOLEAN, Types.BIGINT};
+        for (int c = 0; c < columnCount; c++) {
+            columnNames[c] = c == 0 ? "ts" : "c" + c;
+            columnTypes[c] = c == 0 ? Types.TIMESTAMP : types[(c - 1) % types.length];
+            // 每列只生成64个不同的值，循环使用，避免数据本身占用太多内存
+            Object[] values = new Object[64];
+            for (int i = 0; i < values.length; i++) {
+                switch (columnTypes[c]) {
+                    case Types.TIMESTAMP:
+                        values[i] = 1768838400000L + i * 1000L;
+                        break;
+                    case Types.DOUBLE:
+                        values[i] = i * 0.5;
+                        break;
+                    case Types.INTEGER:
+                        values[i] = i;
+                        break;
+                    case Types.VARCHAR:
+                        values[i] = "value" + i;
+                        break;
+                    case Types.BOOLEAN:
+                        values[i] = i % 2 == 0;
+                        break;
+                    default:
+                        values[i] = (long) i * 1000;
+                }
+            }
+            columnValues[c] = values;
+        }
+        dataSource = proxy(DataSource.class, (proxy, method, args) -> {
+            if ("getConnection".equals(method.getName())) {
+                return connection();
+            }
+            return defaultValue(method);
+        });
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * @return 执行过的写入语句条数
+     */
+    public long getExecutedSql() {
+        return executedSql.sum();
+    }
+
+    /**
+     * @return 执行过的写入语句总字节数
+     */
+    public long getExecutedBytes() {
+        return executedBytes.sum();
+    }
+
+    private Connection connection() {
+        return proxy(Connection.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "createStatement":
+                    return statement();
+                case "isValid":
+                    return true;
+                default:
+                    return defaultValue(method);
+            }
+        });
+    }
+
+    private Statement statement() {
+        return proxy(Statement.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "executeUpdate":
+                case "execute":
+                    String sql = (String) args[0];
+                    executedSql.increment();
+                    executedBytes.add(sql.length());
+                    return method.getReturnType() == boolean.class ? Boolean.FALSE : (Object) 1;
+                case "executeQuery":
+                    return resultSet();
+                default:
+                    return defaultValue(method);
+            }
+        });
+    }
+
+    private ResultSet resultSet() {
+        ResultSetMetaData metaData = proxy(ResultSetMetaData.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getColumnCount":
+                    return columnNames.length;
+                case "getColumnLabel":
+                case "getColumnName":
+                    return columnNames[(Integer) args[0] - 1];
+                case "getColumnType":
+                    return columnTypes[(Integer) args[0] - 1];
+                default:
+                    return defaultValue(method);
+            }
+        });
+        return proxy(ResultSet.class, new InvocationHandler() {
+            int row = -1;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "next":
+                        return ++row < rowCount;
+                    case "getMetaData":
+                        return metaData;
+                    case "wasNull":
+                        return false;
+                    case "getTimestamp":
+                        return new Timestamp((Long) value(args));
+                    case "getInt":
+                        return ((Number) value(args)).intValue();
+                    case "getLong":
+                        return ((Number) value(args)).longValue();
+                    case "getDouble":
+                        return ((Number) value(args)).doubleValue();
+                    case "getFloat":
+                        return ((Number) value(args)).floatValue();
+                    case "getBigDecimal":
+                        return BigDecimal.valueOf(((Number) value(args)).longValue());
+                    case "getBoolean":
+                        return value(args);
+                    case "getString":
+                        return String.valueOf(value(args));
+                    case "getObject":
+                        return value(args);
+                    default:
+                        return defaultValue(method);
+                }
+            }
+
+            private Object value(Object[] args) {
+                Object[] values = columnValues[(Integer) args[0] - 1];
+                return values[row & (values.length - 1)];
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, handler);
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> returnType = method.getReturnType();
+        if (returnType == boolean.class) {
+            return false;
+        }
+        if (returnType == int.class) {
+            return 0;
+        }
+        if (returnType == long.class) {
+            return 0L;
+        }
+        if (returnType == double.class) {
+            return 0D;
+        }
+        if (returnType == float.class) {
+            return 0F;
+        }
+        if (returnType == short.class) {
+            return (short) 0;
+        }
+        if (returnType == byte.class) {
+            return (byte) 0;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,66 @@
+package sunyu.util.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sunyu.util.TDengineUtil;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 刷写一个批次的耗时：拼接最终sql、执行、释放缓冲区
+ * <p>
+ * 每次调用先写入 {@link #ROWS} 行再 await，结果按行平均；和 {@link SqlEncodeBenchmark} 的差值就是刷写的开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FlushBenchmark {
+    static final int ROWS = 10000;
+
+    /**
+     * 批次大小
+     */
+    @Param({"65536", "1048576"})
+    public int maxSqlLength;
+
+    /**
+     * 子表数，子表越多合并的行越少
+     */
+    @Param({"1", "1000"})
+    public int tableCount;
+
+    private TDengineUtil tDengineUtil;
+    private Map<String, Object>[] rows;
+    private String[] tableNames;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        tDengineUtil = TDengineUtil.builder().dataSource(new FakeJdbc(0, 0).getDataSource()).setMaxSqlLength(maxSqlLength)
+                .setFlushThreads(0).build();
+        rows = new Map[ROWS];
+        tableNames = new String[ROWS];
+        for (int r = 0; r < ROWS; r++) {
+            rows[r] = Rows.fields(r, 10);
+            rows[r].put("did", "test" + (r % tableCount));
+            tableNames[r] = "test" + (r % tableCount);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        tDengineUtil.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void appendAndFlush() {
+        for (int r = 0; r < ROWS; r++) {
+            tDengineUtil.appendInsert("frequent", "d_p", tableNames[r], rows[r]);
+        }
+        tDengineUtil.await();
+    }
+}
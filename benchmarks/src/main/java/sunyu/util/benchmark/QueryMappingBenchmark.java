@@ -0,0 +1,56 @@
+package sunyu.util.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sunyu.util.TDengineUtil;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 查询结果映射的耗时，按行平均，对比窄表和宽表
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryMappingBenchmark {
+    static final int ROWS = 10000;
+
+    /**
+     * 结果集的列数
+     */
+    @Param({"4", "64"})
+    public int columnCount;
+
+    private TDengineUtil tDengineUtil;
+
+    @Setup
+    public void setup() {
+        tDengineUtil = TDengineUtil.builder().dataSource(new FakeJdbc(ROWS, columnCount).getDataSource()).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        tDengineUtil.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public Object querySql() {
+        return tDengineUtil.querySql("select * from frequent.d_p");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long querySqlRowHandler(Blackhole blackhole) {
+        return tDengineUtil.querySql("select * from frequent.d_p", blackhole::consume);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public Object queryColumnar() {
+        return tDengineUtil.queryColumnar("select * from frequent.d_p");
+    }
+}
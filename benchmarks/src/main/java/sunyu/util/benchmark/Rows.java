@@ -0,0 +1,35 @@
+package sunyu.util.benchmark;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 合成的写入数据
+ */
+class Rows {
+    private static final long START = 1768838400000L;
+
+    /**
+     * @param row        行号
+     * @param fieldCount 字段数，第一个字段为时间戳，其余为数值和字符串
+     * @return 字段
+     */
+    static Map<String, Object> fields(int row, int fieldCount) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("3014", new Date(START + row * 1000L));
+        for (int f = 1; f < fieldCount; f++) {
+            switch (f % 3) {
+                case 0:
+                    fields.put("f" + f, row * 0.5);
+                    break;
+                case 1:
+                    fields.put("f" + f, row + f);
+                    break;
+                default:
+                    fields.put("f" + f, "value" + (row & 63));
+            }
+        }
+        return fields;
+    }
+}
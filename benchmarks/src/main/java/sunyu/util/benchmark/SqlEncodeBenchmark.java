@@ -0,0 +1,105 @@
+package sunyu.util.benchmark;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.util.StrUtil;
+import org.openjdk.jmh.annotations.*;
+import sunyu.util.TDengineUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每行数据生成写入sql的耗时，包括 v3.3 写法和 USING ... TAGS 写法
+ * <p>
+ * 单线程写入，缓冲区满了以后在当前线程中刷写到假数据源，刷写本身几乎没有开销
+ * <p>
+ * legacyV33 是原来的 genSqlv33 写法(两个ArrayList、逐个拼接字符串、CollUtil.join、StrUtil.format后再复制到缓冲区)，
+ * 用于对比；每行分配的字节数使用 -prof gc 查看 gc.alloc.rate.norm
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SqlEncodeBenchmark {
+    private static final int MAX_SQL_LENGTH = 1024 * 1024;
+
+    /**
+     * 每行的字段数
+     */
+    @Param({"5", "50"})
+    public int fieldCount;
+
+    private TDengineUtil tDengineUtil;
+    private Map<String, Object>[] fieldsAndTags;
+    private Map<String, Object>[] fields;
+    private Map<String, Object> tags;
+    private String[] tableNames;
+    private StringBuilder legacyBuffer;
+    private int i;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        tDengineUtil = TDengineUtil.builder().dataSource(new FakeJdbc(0, 0).getDataSource()).setFlushThreads(0).build();
+        fieldsAndTags = new Map[1024];
+        fields = new Map[1024];
+        tableNames = new String[1024];
+        tags = new HashMap<>();
+        tags.put("did", "test");
+        tags.put("protocol", "xxx");
+        for (int r = 0; r < fieldsAndTags.length; r++) {
+            fields[r] = Rows.fields(r, fieldCount);
+            fieldsAndTags[r] = new HashMap<>(fields[r]);
+            fieldsAndTags[r].putAll(tags);
+            tableNames[r] = "test" + (r % 100);
+        }
+        legacyBuffer = new StringBuilder(MAX_SQL_LENGTH);
+    }
+
+    @TearDown
+    public void tearDown() {
+        tDengineUtil.close();
+    }
+
+    @Benchmark
+    public void v33() {
+        int r = i++ & 1023;
+        tDengineUtil.appendInsert("frequent", "d_p", tableNames[r], fieldsAndTags[r]);
+    }
+
+    @Benchmark
+    public void usingTags() {
+        int r = i++ & 1023;
+        tDengineUtil.appendInsert("frequent", "d_p", tableNames[r], fields[r], tags);
+    }
+
+    @Benchmark
+    public StringBuilder legacyV33() {
+        int r = i++ & 1023;
+        String sql = legacyGenSqlv33("frequent", "d_p", tableNames[r], fieldsAndTags[r]);
+        if (legacyBuffer.length() + sql.length() >= MAX_SQL_LENGTH) {
+            legacyBuffer.setLength(0);
+        }
+        return legacyBuffer.append(sql);
+    }
+
+    private static String legacyGenSqlv33(String databaseName, String superTableName, String tableName,
+                                          Map<String, ?> fieldsAndTags) {
+        List<String> fieldAndTagNames = new ArrayList<>();
+        List<String> fieldAndTagValues = new ArrayList<>();
+        fieldsAndTags.forEach((key, value) -> {
+            if (value != null) {
+                fieldAndTagNames.add("`" + key + "`");
+                fieldAndTagValues.add("'" + Convert.toStr(value) + "'");
+            }
+        });
+        return StrUtil.format(" `{}`.`{}` (`tbname`,{}) values ('{}',{}) ", databaseName, superTableName,
+                CollUtil.join(fieldAndTagNames, ","), tableName, CollUtil.join(fieldAndTagValues, ","));
+    }
+}
@@ -0,0 +1,405 @@
+package sunyu.util;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 列式查询结果，每列一个基本类型数组，数组长度等于行数，null值记录在位图中(对应位置的数组值为0)
+ */
+public class ColumnBatch {
+    /**
+     * 列式查询结果中列的存储类型
+     */
+    public enum ColumnType {
+        /**
+         * 时间戳，毫秒，{@link ColumnBatch#getLongs(int)}；
+         * 微秒和纳秒精度的数据库中毫秒以下的部分为 {@link ColumnBatch#getNanosOfMilli(int)}
+         */
+        TIMESTAMP,
+        /**
+         * 整数，{@link ColumnBatch#getLongs(int)}
+         */
+        LONG,
+        /**
+         * 浮点数，{@link ColumnBatch#getDoubles(int)}
+         */
+        DOUBLE,
+        /**
+         * 布尔值，{@link ColumnBatch#getBooleans(int)}
+         */
+        BOOLEAN,
+        /**
+         * 字符串，字典编码，{@link ColumnBatch#getDictionaryCodes(int)} 和 {@link ColumnBatch#getDictionary(int)}
+         */
+        STRING,
+        /**
+         * 其他类型，包括DECIMAL(BigDecimal，不损失精度)，{@link ColumnBatch#getObjects(int)}
+         */
+        OBJECT
+    }
+
+    private final String[] columnNames;
+    private final ColumnType[] columnTypes;
+    private final int[] jdbcTypes;
+    private final long[][] longs;
+    /**
+     * 时间戳列毫秒以下的纳秒数
+     */
+    private final int[][] nanos;
+    private final double[][] doubles;
+    private final boolean[][] booleans;
+    private final int[][] codes;
+    private final Map<String, Integer>[] dictionaryIndexes;
+    private final List<String>[] dictionaries;
+    private final Object[][] objects;
+    private final BitSet[] nulls;
+    int rowCount;
+    private int capacity = 1024;
+
+    @SuppressWarnings("unchecked")
+    ColumnBatch(ResultSetMetaData metaData) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        columnNames = new String[columnCount];
+        columnTypes = new ColumnType[columnCount];
+        jdbcTypes = new int[columnCount];
+        longs = new long[columnCount][];
+        nanos = new int[columnCount][];
+        doubles = new double[columnCount][];
+        booleans = new boolean[columnCount][];
+        codes = new int[columnCount][];
+        dictionaryIndexes = new Map[columnCount];
+        dictionaries = new List[columnCount];
+        objects = new Object[columnCount][];
+        nulls = new BitSet[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columnNames[i] = metaData.getColumnLabel(i + 1);
+            jdbcTypes[i] = metaData.getColumnType(i + 1);
+            columnTypes[i] = columnType(jdbcTypes[i]);
+            nulls[i] = new BitSet();
+            switch (columnTypes[i]) {
+                case TIMESTAMP:
+                    longs[i] = new long[capacity];
+                    nanos[i] = new int[capacity];
+                    break;
+                case LONG:
+                    longs[i] = new long[capacity];
+                    break;
+                case DOUBLE:
+                    doubles[i] = new double[capacity];
+                    break;
+                case BOOLEAN:
+                    booleans[i] = new boolean[capacity];
+                    break;
+                case STRING:
+                    codes[i] = new int[capacity];
+                    dictionaryIndexes[i] = new HashMap<>();
+                    dictionaries[i] = new ArrayList<>();
+                    break;
+                default:
+                    objects[i] = new Object[capacity];
+                    break;
+            }
+        }
+    }
+
+    private static ColumnType columnType(int jdbcType) {
+        switch (jdbcType) {
+            case Types.TIMESTAMP:
+                return ColumnType.TIMESTAMP;
+            case Types.BIGINT:
+            case Types.INTEGER:
+            case Types.SMALLINT:
+            case Types.TINYINT:
+                return ColumnType.LONG;
+            case Types.FLOAT:
+            case Types.REAL:
+            case Types.DOUBLE:
+                return ColumnType.DOUBLE;
+            case Types.BOOLEAN:
+            case Types.BIT:
+                return ColumnType.BOOLEAN;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                return ColumnType.STRING;
+            default:
+                return ColumnType.OBJECT;
+        }
+    }
+
+    void read(ResultSet resultSet) throws SQLException {
+        if (rowCount == capacity) {
+            resize(capacity * 2);
+        }
+        int row = rowCount++;
+        for (int i = 0; i < columnTypes.length; i++) {
+            int columnIndex = i + 1;
+            switch (columnTypes[i]) {
+                case TIMESTAMP: {
+                    Timestamp value = resultSet.getTimestamp(columnIndex);
+                    if (value == null) {
+                        nulls[i].set(row);
+                    } else {
+                        longs[i][row] = value.getTime();
+                        nanos[i][row] = value.getNanos() % 1000_000;
+                    }
+                    break;
+                }
+                case LONG:
+                    longs[i][row] = resultSet.getLong(columnIndex);
+                    if (resultSet.wasNull()) {
+                        nulls[i].set(row);
+                    }
+                    break;
+                case DOUBLE:
+                    doubles[i][row] = resultSet.getDouble(columnIndex);
+                    if (resultSet.wasNull()) {
+                        nulls[i].set(row);
+                    }
+                    break;
+                case BOOLEAN:
+                    booleans[i][row] = resultSet.getBoolean(columnIndex);
+                    if (resultSet.wasNull()) {
+                        nulls[i].set(row);
+                    }
+                    break;
+                case STRING: {
+                    String value = resultSet.getString(columnIndex);
+                    if (value == null) {
+                        nulls[i].set(row);
+                        codes[i][row] = -1;
+                    } else {
+                        Integer code = dictionaryIndexes[i].get(value);
+                        if (code == null) {
+                            code = dictionaries[i].size();
+                            dictionaries[i].add(value);
+                            dictionaryIndexes[i].put(value, code);
+                        }
+                        codes[i][row] = code;
+                    }
+                    break;
+                }
+                default:
+                    objects[i][row] = TDengineUtil.readColumn(resultSet, columnIndex, jdbcTypes[i]);
+                    if (objects[i][row] == null) {
+                        nulls[i].set(row);
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void resize(int newCapacity) {
+        for (int i = 0; i < columnTypes.length; i++) {
+            if (nanos[i] != null) {
+                nanos[i] = Arrays.copyOf(nanos[i], newCapacity);
+            }
+            if (longs[i] != null) {
+                longs[i] = Arrays.copyOf(longs[i], newCapacity);
+            } else if (doubles[i] != null) {
+                doubles[i] = Arrays.copyOf(doubles[i], newCapacity);
+            } else if (booleans[i] != null) {
+                booleans[i] = Arrays.copyOf(booleans[i], newCapacity);
+            } else if (codes[i] != null) {
+                codes[i] = Arrays.copyOf(codes[i], newCapacity);
+            } else {
+                objects[i] = Arrays.copyOf(objects[i], newCapacity);
+            }
+        }
+        capacity = newCapacity;
+    }
+
+    /**
+     * 数组长度缩减为行数，释放字典的反向索引
+     */
+    void trim() {
+        if (capacity != rowCount) {
+            resize(rowCount);
+        }
+        Arrays.fill(dictionaryIndexes, null);
+    }
+
+    /**
+     * @return 行数
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return 列数
+     */
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    /**
+     * @param column 列序号，从0开始
+     * @return 列名
+     */
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    /**
+     * @param column 列序号，从0开始
+     * @return 列存储类型
+     */
+    public ColumnType getColumnType(int column) {
+        return columnTypes[column];
+    }
+
+    /**
+     * 查找列序号
+     *
+     * @param columnName 列名
+     * @return 列序号，从0开始，不存在时返回-1
+     */
+    public int indexOf(String columnName) {
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equalsIgnoreCase(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int column(String columnName) {
+        int column = indexOf(columnName);
+        if (column < 0) {
+            throw new IllegalArgumentException("列不存在: " + columnName);
+        }
+        return column;
+    }
+
+    /**
+     * @param column 列序号，从0开始
+     * @param row    行序号，从0开始
+     * @return 是否为null
+     */
+    public boolean isNull(int column, int row) {
+        return nulls[column].get(row);
+    }
+
+    /**
+     * @param column 列序号，从0开始
+     * @return null值位图
+     */
+    public BitSet getNulls(int column) {
+        return nulls[column];
+    }
+
+    /**
+     * @param column TIMESTAMP或LONG类型的列序号
+     * @return 列数据
+     */
+    public long[] getLongs(int column) {
+        return checkType(longs[column], column, "TIMESTAMP/LONG");
+    }
+
+    public long[] getLongs(String columnName) {
+        return getLongs(column(columnName));
+    }
+
+    /**
+     * 时间戳毫秒以下的部分，毫秒精度的数据库中都为0；纳秒时间戳 = getLongs(column)[row] * 1000000 + getNanosOfMilli(column)[row]
+     *
+     * @param column TIMESTAMP类型的列序号
+     * @return 每行毫秒以下的纳秒数，0到999999
+     */
+    public int[] getNanosOfMilli(int column) {
+        return checkType(nanos[column], column, "TIMESTAMP");
+    }
+
+    public int[] getNanosOfMilli(String columnName) {
+        return getNanosOfMilli(column(columnName));
+    }
+
+    /**
+     * @param column DOUBLE类型的列序号
+     * @return 列数据
+     */
+    public double[] getDoubles(int column) {
+        return checkType(doubles[column], column, "DOUBLE");
+    }
+
+    public double[] getDoubles(String columnName) {
+        return getDoubles(column(columnName));
+    }
+
+    /**
+     * @param column BOOLEAN类型的列序号
+     * @return 列数据
+     */
+    public boolean[] getBooleans(int column) {
+        return checkType(booleans[column], column, "BOOLEAN");
+    }
+
+    public boolean[] getBooleans(String columnName) {
+        return getBooleans(column(columnName));
+    }
+
+    /**
+     * @param column STRING类型的列序号
+     * @return 每行字符串在字典中的序号，null值为-1
+     */
+    public int[] getDictionaryCodes(int column) {
+        return checkType(codes[column], column, "STRING");
+    }
+
+    public int[] getDictionaryCodes(String columnName) {
+        return getDictionaryCodes(column(columnName));
+    }
+
+    /**
+     * @param column STRING类型的列序号
+     * @return 字典，按照首次出现的顺序
+     */
+    public List<String> getDictionary(int column) {
+        return Collections.unmodifiableList(checkType(dictionaries[column], column, "STRING"));
+    }
+
+    public List<String> getDictionary(String columnName) {
+        return getDictionary(column(columnName));
+    }
+
+    /**
+     * @param column STRING类型的列序号
+     * @param row    行序号，从0开始
+     * @return 字符串值
+     */
+    public String getString(int column, int row) {
+        int code = getDictionaryCodes(column)[row];
+        return code < 0 ? null : dictionaries[column].get(code);
+    }
+
+    /**
+     * @param column OBJECT类型的列序号
+     * @return 列数据
+     */
+    public Object[] getObjects(int column) {
+        return checkType(objects[column], column, "OBJECT");
+    }
+
+    public Object[] getObjects(String columnName) {
+        return getObjects(column(columnName));
+    }
+
+    private <T> T checkType(T data, int column, String expected) {
+        if (data == null) {
+            throw new IllegalStateException(StrUtil.format("列 {} 的类型为 {}，不是 {}", columnNames[column], columnTypes[column], expected));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,54 @@
+package sunyu.util;
+
+/**
+ * 依次通知多个监控监听器
+ */
+class CompositeMetricsListener implements MetricsListener {
+    private final MetricsListener[] listeners;
+
+    CompositeMetricsListener(MetricsListener[] listeners) {
+        this.listeners = listeners;
+    }
+
+    @Override
+    public void onAppend(int rows, int bytes, long blockedNanos) {
+        for (MetricsListener listener : listeners) {
+            listener.onAppend(rows, bytes, blockedNanos);
+        }
+    }
+
+    @Override
+    public void onBackpressure(long blockedNanos) {
+        for (MetricsListener listener : listeners) {
+            listener.onBackpressure(blockedNanos);
+        }
+    }
+
+    @Override
+    public void onFlush(int rows, int bytes, long latencyNanos) {
+        for (MetricsListener listener : listeners) {
+            listener.onFlush(rows, bytes, latencyNanos);
+        }
+    }
+
+    @Override
+    public void onRetry(Throwable cause) {
+        for (MetricsListener listener : listeners) {
+            listener.onRetry(cause);
+        }
+    }
+
+    @Override
+    public void onDeadLetter(int rows, Throwable cause) {
+        for (MetricsListener listener : listeners) {
+            listener.onDeadLetter(rows, cause);
+        }
+    }
+
+    @Override
+    public void onQuery(long rows, long latencyNanos, boolean success) {
+        for (MetricsListener listener : listeners) {
+            listener.onQuery(rows, latencyNanos, success);
+        }
+    }
+}
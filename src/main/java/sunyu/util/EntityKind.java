@@ -0,0 +1,8 @@
+package sunyu.util;
+
+/**
+ * 字段的存取方式，基本类型使用不装箱的访问器
+ */
+enum EntityKind {
+    LONG, INT, DOUBLE, FLOAT, BOOLEAN, OBJECT
+}
@@ -0,0 +1,163 @@
+package sunyu.util;
+
+import cn.hutool.core.util.StrUtil;
+import sunyu.util.TDengineUtil.Column;
+import sunyu.util.TDengineUtil.SqlTemplate;
+import sunyu.util.TDengineUtil.Table;
+import sunyu.util.TDengineUtil.TableName;
+import sunyu.util.TDengineUtil.Tag;
+import sunyu.util.TDengineUtil.Ts;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 实体类的映射信息，每个类只解析一次
+ */
+class EntityMeta {
+    private static final Map<Class<?>, EntityMeta> METAS = new ConcurrentHashMap<>();
+    private final Class<?> type;
+    final String databaseName;
+    final String superTableName;
+    final boolean usingTags;
+    private final EntityProperty tableNameProperty;
+    /**
+     * 时间戳列在第一个
+     */
+    final EntityProperty[] fieldProperties;
+    final EntityProperty[] tagProperties;
+    /**
+     * 列名小写 -> 字段
+     */
+    private final Map<String, EntityProperty> columns = new HashMap<>();
+    final SqlTemplate template;
+    private final MethodHandle constructor;
+
+    static EntityMeta of(Class<?> type) {
+        EntityMeta meta = METAS.get(type);
+        if (meta == null) {
+            meta = METAS.computeIfAbsent(type, EntityMeta::new);
+        }
+        return meta;
+    }
+
+    private EntityMeta(Class<?> type) {
+        this.type = type;
+        Table table = type.getAnnotation(Table.class);
+        databaseName = table == null ? null : table.database();
+        superTableName = table == null ? null : table.superTable();
+        usingTags = table != null && table.usingTags();
+        EntityProperty tableNameProperty = null;
+        List<EntityProperty> fields = new ArrayList<>();
+        List<EntityProperty> tags = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            List<EntityProperty> declaredFields = new ArrayList<>();
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                Column column = field.getAnnotation(Column.class);
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()
+                        || (column != null && column.ignore())) {
+                    continue;
+                }
+                if (field.isAnnotationPresent(TableName.class)) {
+                    tableNameProperty = new EntityProperty(field, "tbname");
+                    continue;
+                }
+                Ts ts = field.getAnnotation(Ts.class);
+                Tag tag = field.getAnnotation(Tag.class);
+                if (ts != null) {
+                    fields.add(0, new EntityProperty(field, StrUtil.blankToDefault(ts.value(), field.getName())));
+                } else if (tag != null) {
+                    tags.add(new EntityProperty(field, StrUtil.blankToDefault(tag.value(), field.getName())));
+                } else {
+                    declaredFields.add(new EntityProperty(field, column == null ? field.getName()
+                            : StrUtil.blankToDefault(column.value(), field.getName())));
+                }
+            }
+            fields.addAll(declaredFields);
+        }
+        this.tableNameProperty = tableNameProperty;
+        fieldProperties = fields.toArray(new EntityProperty[0]);
+        tagProperties = tags.toArray(new EntityProperty[0]);
+        for (EntityProperty property : fieldProperties) {
+            columns.put(property.column.toLowerCase(Locale.ROOT), property);
+        }
+        for (EntityProperty property : tagProperties) {
+            columns.put(property.column.toLowerCase(Locale.ROOT), property);
+        }
+        if (tableNameProperty != null) {
+            columns.put("tbname", tableNameProperty);
+        }
+        if (table == null) {
+            template = null;
+        } else if (usingTags) {
+            template = new SqlTemplate(databaseName, superTableName, columnNames(fieldProperties), columnNames(tagProperties));
+        } else {
+            List<String> names = new ArrayList<>(Arrays.asList(columnNames(fieldProperties)));
+            names.addAll(Arrays.asList(columnNames(tagProperties)));
+            template = new SqlTemplate(databaseName, superTableName, names.toArray(new String[0]), null);
+        }
+        MethodHandle constructor = null;
+        try {
+            Constructor<?> declared = type.getDeclaredConstructor();
+            declared.setAccessible(true);
+            constructor = MethodHandles.lookup().unreflectConstructor(declared).asType(MethodType.methodType(Object.class));
+        } catch (Exception ignored) {
+            // 没有无参构造方法时只能用于写入
+        }
+        this.constructor = constructor;
+    }
+
+    private static String[] columnNames(EntityProperty[] properties) {
+        String[] names = new String[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            names[i] = properties[i].column;
+        }
+        return names;
+    }
+
+    void checkWritable() {
+        if (template == null) {
+            throw new IllegalArgumentException(StrUtil.format("{} 缺少 @Table 注解", type.getName()));
+        }
+        if (tableNameProperty == null) {
+            throw new IllegalArgumentException(StrUtil.format("{} 缺少 @TableName 字段", type.getName()));
+        }
+    }
+
+    String tableName(Object entity) {
+        Object tableName = tableNameProperty.get(entity);
+        if (tableName == null) {
+            throw new IllegalArgumentException(StrUtil.format("{} 子表名为null", type.getName()));
+        }
+        return tableName.toString();
+    }
+
+    EntityProperty property(String column) {
+        return columns.get(column.toLowerCase(Locale.ROOT));
+    }
+
+    Object newInstance() {
+        if (constructor == null) {
+            throw new IllegalArgumentException(StrUtil.format("{} 没有无参构造方法", type.getName()));
+        }
+        try {
+            return (Object) constructor.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package sunyu.util;
+
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.util.StrUtil;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.*;
+import java.util.Date;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * 实体的一个字段
+ * <p>
+ * 有public的getter/setter时使用 LambdaMetafactory 生成访问器，否则使用字段的 MethodHandle，每个字段只生成一次
+ */
+class EntityProperty {
+    final String column;
+    private final Class<?> type;
+    final EntityKind kind;
+    Function<Object, Object> getter;
+    ToLongFunction<Object> longGetter;
+    ToDoubleFunction<Object> doubleGetter;
+    Predicate<Object> booleanGetter;
+    private BiConsumer<Object, Object> setter;
+    private ObjLongConsumer<Object> longSetter;
+    private ObjIntConsumer<Object> intSetter;
+    private ObjDoubleConsumer<Object> doubleSetter;
+
+    EntityProperty(Field field, String column) {
+        this.column = column;
+        this.type = field.getType();
+        if (type == long.class || type == short.class || type == byte.class) {
+            kind = EntityKind.LONG;
+        } else if (type == int.class) {
+            kind = EntityKind.INT;
+        } else if (type == double.class) {
+            kind = EntityKind.DOUBLE;
+        } else if (type == float.class) {
+            kind = EntityKind.FLOAT;
+        } else if (type == boolean.class) {
+            kind = EntityKind.BOOLEAN;
+        } else {
+            kind = EntityKind.OBJECT;
+        }
+        try {
+            createGetter(field);
+            createSetter(field);
+        } catch (Throwable e) {
+            throw new IllegalArgumentException(StrUtil.format("无法访问字段 {}.{}: {}", field.getDeclaringClass().getName(),
+                    field.getName(), e.getMessage()), e);
+        }
+    }
+
+    private static Method beanMethod(Field field, String prefix, Class<?>... parameterTypes) {
+        String name = prefix + Character.toUpperCase(field.getName().charAt(0)) + field.getName().substring(1);
+        try {
+            Method method = field.getDeclaringClass().getMethod(name, parameterTypes);
+            return Modifier.isPublic(field.getDeclaringClass().getModifiers()) ? method : null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <F> F lambda(Class<F> functionType, String methodName, MethodType samType, Method method,
+                                MethodType instantiatedType) throws Throwable {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle handle = lookup.unreflect(method);
+        CallSite site = LambdaMetafactory.metafactory(lookup, methodName, MethodType.methodType(functionType),
+                samType, handle, instantiatedType);
+        return (F) site.getTarget().invoke();
+    }
+
+    private void createGetter(Field field) throws Throwable {
+        Method method = beanMethod(field, type == boolean.class ? "is" : "get");
+        if (method == null && type == boolean.class) {
+            method = beanMethod(field, "get");
+        }
+        if (method != null && method.getReturnType() == type) {
+            Class<?> owner = field.getDeclaringClass();
+            try {
+                switch (kind) {
+                    case LONG:
+                    case INT:
+                        longGetter = lambda(ToLongFunction.class, "applyAsLong", MethodType.methodType(long.class, Object.class),
+                                method, MethodType.methodType(long.class, owner));
+                        return;
+                    case DOUBLE:
+                    case FLOAT:
+                        doubleGetter = lambda(ToDoubleFunction.class, "applyAsDouble",
+                                MethodType.methodType(double.class, Object.class), method, MethodType.methodType(double.class, owner));
+                        return;
+                    case BOOLEAN:
+                        booleanGetter = lambda(Predicate.class, "test", MethodType.methodType(boolean.class, Object.class),
+                                method, MethodType.methodType(boolean.class, owner));
+                        return;
+                    default:
+                        getter = lambda(Function.class, "apply", MethodType.methodType(Object.class, Object.class),
+                                method, MethodType.methodType(type, owner));
+                        return;
+                }
+            } catch (Throwable ignored) {
+                // 类加载器或者访问权限不满足时使用字段的 MethodHandle
+            }
+        }
+        field.setAccessible(true);
+        MethodHandle handle = MethodHandles.lookup().unreflectGetter(field);
+        switch (kind) {
+            case LONG:
+            case INT:
+                MethodHandle longHandle = handle.asType(MethodType.methodType(long.class, Object.class));
+                longGetter = entity -> {
+                    try {
+                        return (long) longHandle.invokeExact(entity);
+                    } catch (Throwable e) {
+                        throw new RuntimeException(e);
+                    }
+                };
+                return;
+            case DOUBLE:
+            case FLOAT:
+                MethodHandle doubleHandle = handle.asType(MethodType.methodType(double.class, Object.class));
+                doubleGetter = entity -> {
+                    try {
+                        return (double) doubleHandle.invokeExact(entity);
+                    } catch (Throwable e) {
+                        throw new RuntimeException(e);
+                    }
+                };
+                return;
+            case BOOLEAN:
+                MethodHandle booleanHandle = handle.asType(MethodType.methodType(boolean.class, Object.class));
+                booleanGetter = entity -> {
+                    try {
+                        return (boolean) booleanHandle.invokeExact(entity);
+                    } catch (Throwable e) {
+                        throw new RuntimeException(e);
+                    }
+                };
+                return;
+            default:
+                MethodHandle objectHandle = handle.asType(MethodType.methodType(Object.class, Object.class));
+                getter = entity -> {
+                    try {
+                        return (Object) objectHandle.invokeExact(entity);
+                    } catch (Throwable e) {
+                        throw new RuntimeException(e);
+                    }
+                };
+        }
+    }
+
+    private void createSetter(Field field) throws Throwable {
+        Method method = beanMethod(field, "set", type);
+        if (method != null) {
+            Class<?> owner = field.getDeclaringClass();
+            try {
+                if (type == long.class) {
+                    longSetter = lambda(ObjLongConsumer.class, "accept", MethodType.methodType(void.class, Object.class, long.class),
+                            method, MethodType.methodType(void.class, owner, long.class));
+                } else if (type == int.class) {
+                    intSetter = lambda(ObjIntConsumer.class, "accept", MethodType.methodType(void.class, Object.class, int.class),
+                            method, MethodType.methodType(void.class, owner, int.class));
+                } else if (type == double.class) {
+                    doubleSetter = lambda(ObjDoubleConsumer.class, "accept",
+                            MethodType.methodType(void.class, Object.class, double.class), method,
+                            MethodType.methodType(void.class, owner, double.class));
+                } else {
+                    setter = lambda(BiConsumer.class, "accept", MethodType.methodType(void.class, Object.class, Object.class),
+                            method, MethodType.methodType(void.class, owner, type.isPrimitive() ? wrapper(type) : type));
+                }
+                return;
+            } catch (Throwable ignored) {
+                // 使用字段的 MethodHandle
+            }
+        }
+        if (Modifier.isFinal(field.getModifiers())) {
+            return;
+        }
+        field.setAccessible(true);
+        MethodHandle handle = MethodHandles.lookup().unreflectSetter(field);
+        if (type == long.class) {
+            MethodHandle longHandle = handle.asType(MethodType.methodType(void.class, Object.class, long.class));
+            longSetter = (entity, value) -> {
+                try {
+                    longHandle.invokeExact(entity, value);
+                } catch (Throwable e) {
+                    throw new RuntimeException(e);
+                }
+            };
+        } else if (type == int.class) {
+            MethodHandle intHandle = handle.asType(MethodType.methodType(void.class, Object.class, int.class));
+            intSetter = (entity, value) -> {
+                try {
+                    intHandle.invokeExact(entity, value);
+                } catch (Throwable e) {
+                    throw new RuntimeException(e);
+                }
+            };
+        } else if (type == double.class) {
+            MethodHandle doubleHandle = handle.asType(MethodType.methodType(void.class, Object.class, double.class));
+            doubleSetter = (entity, value) -> {
+                try {
+                    doubleHandle.invokeExact(entity, value);
+                } catch (Throwable e) {
+                    throw new RuntimeException(e);
+                }
+            };
+        } else {
+            MethodHandle objectHandle = handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+            setter = (entity, value) -> {
+                try {
+                    objectHandle.invokeExact(entity, value);
+                } catch (Throwable e) {
+                    throw new RuntimeException(e);
+                }
+            };
+        }
+    }
+
+    private static Class<?> wrapper(Class<?> primitive) {
+        if (primitive == boolean.class) {
+            return Boolean.class;
+        }
+        if (primitive == float.class) {
+            return Float.class;
+        }
+        if (primitive == short.class) {
+            return Short.class;
+        }
+        if (primitive == byte.class) {
+            return Byte.class;
+        }
+        if (primitive == char.class) {
+            return Character.class;
+        }
+        return primitive;
+    }
+
+    /**
+     * 装箱读取，用于转换为Map
+     */
+    Object get(Object entity) {
+        switch (kind) {
+            case LONG:
+                long l = longGetter.applyAsLong(entity);
+                return type == short.class ? (Object) (short) l : type == byte.class ? (Object) (byte) l : (Object) l;
+            case INT:
+                return (int) longGetter.applyAsLong(entity);
+            case DOUBLE:
+                return doubleGetter.applyAsDouble(entity);
+            case FLOAT:
+                return (float) doubleGetter.applyAsDouble(entity);
+            case BOOLEAN:
+                return booleanGetter.test(entity);
+            default:
+                return getter.apply(entity);
+        }
+    }
+
+    /**
+     * 从结果集直接读取到字段，基本类型不装箱，null值不设置
+     */
+    void read(ResultSet resultSet, int columnIndex, Object entity) throws SQLException {
+        if (longSetter != null) {
+            long value = resultSet.getLong(columnIndex);
+            if (!resultSet.wasNull()) {
+                longSetter.accept(entity, value);
+            }
+        } else if (intSetter != null) {
+            int value = resultSet.getInt(columnIndex);
+            if (!resultSet.wasNull()) {
+                intSetter.accept(entity, value);
+            }
+        } else if (doubleSetter != null) {
+            double value = resultSet.getDouble(columnIndex);
+            if (!resultSet.wasNull()) {
+                doubleSetter.accept(entity, value);
+            }
+        } else if (setter != null) {
+            Object value;
+            if (type == String.class) {
+                value = resultSet.getString(columnIndex);
+            } else if (type == Timestamp.class || type == Date.class) {
+                value = resultSet.getTimestamp(columnIndex);
+            } else if (type == boolean.class || type == Boolean.class) {
+                boolean b = resultSet.getBoolean(columnIndex);
+                value = resultSet.wasNull() ? null : b;
+            } else {
+                value = Convert.convert(type, resultSet.getObject(columnIndex));
+            }
+            if (value != null || !type.isPrimitive()) {
+                setter.accept(entity, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package sunyu.util;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * 内置监控指标，计数器和直方图，可以通过JMX查看
+ */
+public class Metrics implements MetricsListener, MetricsMBean {
+    private final LongAdder appendedRows = new LongAdder();
+    private final LongAdder appendedBytes = new LongAdder();
+    private final LongAdder appendBlockedNanos = new LongAdder();
+    private final LongAdder backpressureNanos = new LongAdder();
+    private final LongAdder flushedRows = new LongAdder();
+    private final Histogram flushLatencyNanos = new Histogram();
+    private final Histogram batchBytes = new Histogram();
+    private final LongAdder retryCount = new LongAdder();
+    private final LongAdder deadLetterRows = new LongAdder();
+    private final LongAdder queryFailures = new LongAdder();
+    private final LongAdder queryRows = new LongAdder();
+    private final Histogram queryLatencyNanos = new Histogram();
+    private final LongSupplier bufferedBytes;
+    private final IntSupplier pendingBatches;
+    private final IntSupplier sqlLengthLimit;
+
+    Metrics(LongSupplier bufferedBytes, IntSupplier pendingBatches, IntSupplier sqlLengthLimit) {
+        this.bufferedBytes = bufferedBytes;
+        this.pendingBatches = pendingBatches;
+        this.sqlLengthLimit = sqlLengthLimit;
+    }
+
+    @Override
+    public void onAppend(int rows, int bytes, long blockedNanos) {
+        appendedRows.add(rows);
+        appendedBytes.add(bytes);
+        appendBlockedNanos.add(blockedNanos);
+    }
+
+    @Override
+    public void onBackpressure(long blockedNanos) {
+        backpressureNanos.add(blockedNanos);
+    }
+
+    @Override
+    public void onFlush(int rows, int bytes, long latencyNanos) {
+        flushedRows.add(rows);
+        flushLatencyNanos.record(latencyNanos);
+        batchBytes.record(bytes);
+    }
+
+    @Override
+    public void onRetry(Throwable cause) {
+        retryCount.increment();
+    }
+
+    @Override
+    public void onDeadLetter(int rows, Throwable cause) {
+        deadLetterRows.add(rows);
+    }
+
+    @Override
+    public void onQuery(long rows, long latencyNanos, boolean success) {
+        queryRows.add(rows);
+        queryLatencyNanos.record(latencyNanos);
+        if (!success) {
+            queryFailures.increment();
+        }
+    }
+
+    @Override
+    public long getAppendedRows() {
+        return appendedRows.sum();
+    }
+
+    @Override
+    public long getAppendedBytes() {
+        return appendedBytes.sum();
+    }
+
+    @Override
+    public long getAppendBlockedMillis() {
+        return appendBlockedNanos.sum() / 1000_000L;
+    }
+
+    @Override
+    public long getBackpressureMillis() {
+        return backpressureNanos.sum() / 1000_000L;
+    }
+
+    @Override
+    public long getBufferedBytes() {
+        return bufferedBytes.getAsLong();
+    }
+
+    @Override
+    public int getPendingBatches() {
+        return pendingBatches.getAsInt();
+    }
+
+    @Override
+    public int getSqlLengthLimit() {
+        return sqlLengthLimit.getAsInt();
+    }
+
+    @Override
+    public long getFlushCount() {
+        return flushLatencyNanos.getCount();
+    }
+
+    @Override
+    public long getFlushedRows() {
+        return flushedRows.sum();
+    }
+
+    @Override
+    public double getFlushLatencyMillisMean() {
+        return flushLatencyNanos.getMean() / 1000_000D;
+    }
+
+    @Override
+    public double getFlushLatencyMillisP99() {
+        return flushLatencyNanos.getPercentile(0.99) / 1000_000D;
+    }
+
+    @Override
+    public double getFlushLatencyMillisMax() {
+        return flushLatencyNanos.getMax() / 1000_000D;
+    }
+
+    @Override
+    public double getBatchBytesMean() {
+        return batchBytes.getMean();
+    }
+
+    @Override
+    public double getBatchBytesMax() {
+        return batchBytes.getMax();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retryCount.sum();
+    }
+
+    @Override
+    public long getDeadLetterRows() {
+        return deadLetterRows.sum();
+    }
+
+    @Override
+    public long getQueryCount() {
+        return queryLatencyNanos.getCount();
+    }
+
+    @Override
+    public long getQueryFailures() {
+        return queryFailures.sum();
+    }
+
+    @Override
+    public long getQueryRows() {
+        return queryRows.sum();
+    }
+
+    @Override
+    public double getQueryLatencyMillisMean() {
+        return queryLatencyNanos.getMean() / 1000_000D;
+    }
+
+    @Override
+    public double getQueryLatencyMillisP99() {
+        return queryLatencyNanos.getPercentile(0.99) / 1000_000D;
+    }
+
+    public Histogram getFlushLatencyNanos() {
+        return flushLatencyNanos;
+    }
+
+    public Histogram getBatchBytes() {
+        return batchBytes;
+    }
+
+    public Histogram getQueryLatencyNanos() {
+        return queryLatencyNanos;
+    }
+
+    @Override
+    public String toString() {
+        return StrUtil.format("appendedRows={} appendedBytes={} appendBlockedMillis={} backpressureMillis={} bufferedBytes={} "
+                        + "pendingBatches={} sqlLengthLimit={} flushCount={} flushedRows={} flushLatencyMillisMean={} flushLatencyMillisP99={} "
+                        + "batchBytesMean={} retryCount={} deadLetterRows={} queryCount={} queryFailures={} queryRows={} "
+                        + "queryLatencyMillisMean={}",
+                getAppendedRows(), getAppendedBytes(), getAppendBlockedMillis(), getBackpressureMillis(), getBufferedBytes(),
+                getPendingBatches(), getSqlLengthLimit(), getFlushCount(), getFlushedRows(), getFlushLatencyMillisMean(), getFlushLatencyMillisP99(),
+                getBatchBytesMean(), getRetryCount(), getDeadLetterRows(), getQueryCount(), getQueryFailures(), getQueryRows(),
+                getQueryLatencyMillisMean());
+    }
+}
@@ -0,0 +1,61 @@
+package sunyu.util;
+
+/**
+ * 监控监听器，所有方法都在写入或查询线程中同步调用，实现需要轻量且线程安全
+ */
+public interface MetricsListener {
+    /**
+     * 数据加入缓冲区
+     *
+     * @param rows         行数
+     * @param bytes        编码后的字节数，参数绑定写入时为估算值
+     * @param blockedNanos 等待缓冲区锁的时间
+     */
+    default void onAppend(int rows, int bytes, long blockedNanos) {
+    }
+
+    /**
+     * 排队批次达到缓冲区数量，提交批次的线程被阻塞
+     *
+     * @param blockedNanos 阻塞时间
+     */
+    default void onBackpressure(long blockedNanos) {
+    }
+
+    /**
+     * 一个批次刷写结束，包括重试时间
+     *
+     * @param rows         行数
+     * @param bytes        批次大小
+     * @param latencyNanos 耗时
+     */
+    default void onFlush(int rows, int bytes, long latencyNanos) {
+    }
+
+    /**
+     * 写入出错，即将重试
+     *
+     * @param cause 异常
+     */
+    default void onRetry(Throwable cause) {
+    }
+
+    /**
+     * 数据写入失败，交给死信处理器
+     *
+     * @param rows  行数
+     * @param cause 异常
+     */
+    default void onDeadLetter(int rows, Throwable cause) {
+    }
+
+    /**
+     * 一次查询结束
+     *
+     * @param rows         返回的行数
+     * @param latencyNanos 耗时
+     * @param success      是否成功
+     */
+    default void onQuery(long rows, long latencyNanos, boolean success) {
+    }
+}
@@ -0,0 +1,48 @@
+package sunyu.util;
+
+/**
+ * 内置监控指标的JMX接口
+ */
+public interface MetricsMBean {
+    long getAppendedRows();
+
+    long getAppendedBytes();
+
+    long getAppendBlockedMillis();
+
+    long getBackpressureMillis();
+
+    long getBufferedBytes();
+
+    int getPendingBatches();
+
+    int getSqlLengthLimit();
+
+    long getFlushCount();
+
+    long getFlushedRows();
+
+    double getFlushLatencyMillisMean();
+
+    double getFlushLatencyMillisP99();
+
+    double getFlushLatencyMillisMax();
+
+    double getBatchBytesMean();
+
+    double getBatchBytesMax();
+
+    long getRetryCount();
+
+    long getDeadLetterRows();
+
+    long getQueryCount();
+
+    long getQueryFailures();
+
+    long getQueryRows();
+
+    double getQueryLatencyMillisMean();
+
+    double getQueryLatencyMillisP99();
+}
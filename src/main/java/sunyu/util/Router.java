@@ -0,0 +1,391 @@
+package sunyu.util;
+
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 多集群写入路由，每个路由是一个独立的 TDengineUtil 实例，有自己的缓冲区、刷写线程和背压
+ * <p>
+ * 写入线程只把行放入路由自己的有界队列，由路由线程编码到缓冲区，
+ * 一个集群变慢或者不可用时只有它自己的队列会堆积，不会阻塞其他路由的写入；
+ * 队列满时写入线程默认一直等待，不会丢弃数据；设置 maxBlockMillis 后最多等待这个时间，超时后这一行交给该路由的死信处理器，
+ * 路由线程写入缓冲区出错的行同样交给该路由的死信处理器
+ * <p>
+ * 行数据在放入队列时复制一份，调用方之后可以修改或者复用Map
+ */
+public class Router implements AutoCloseable {
+    /**
+     * 路由选择器
+     */
+    @FunctionalInterface
+    public interface RouteSelector {
+        /**
+         * @param databaseName   数据库名称
+         * @param superTableName 超级表名称
+         * @param tableName      子表名
+         * @return 写入的路由名称，多个时同一行写入每个路由，返回null或空数组时使用默认路由
+         */
+        String[] select(String databaseName, String superTableName, String tableName);
+    }
+
+    private final Log log = LogFactory.get();
+    private final Map<String, Route> routes;
+    private final Route[] defaultRoutes;
+    private final Map<String, Route[]> databaseRoutes;
+    private final RouteSelector selector;
+    private final long maxBlockMillis;
+    private volatile boolean closed;
+
+    private Router(Builder builder) {
+        if (builder.routes.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个路由");
+        }
+        routes = new LinkedHashMap<>();
+        builder.routes.forEach((name, util) -> routes.put(name, new Route(name, util, builder.queueCapacity)));
+        defaultRoutes = resolve(builder.defaultRoute == null ? new String[]{routes.keySet().iterator().next()}
+                : builder.defaultRoute);
+        databaseRoutes = new HashMap<>();
+        builder.databaseRoutes.forEach((databaseName, names) -> databaseRoutes.put(databaseName, resolve(names)));
+        selector = builder.selector;
+        maxBlockMillis = builder.maxBlockMillis;
+        for (Route route : routes.values()) {
+            route.thread.start();
+        }
+        log.info("[构建 {}] 路由: {}", this.getClass().getSimpleName(), routes.keySet());
+    }
+
+    private Route[] resolve(String[] names) {
+        Route[] resolved = new Route[names.length];
+        for (int i = 0; i < names.length; i++) {
+            resolved[i] = routes.get(names[i]);
+            if (resolved[i] == null) {
+                throw new IllegalArgumentException(StrUtil.format("路由不存在: {}", names[i]));
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * 异步插入一条记录，写入选择出的每个路由 （TDengine3.3版本开始使用这种写法）
+     *
+     * @param databaseName   数据库名称
+     * @param superTableName 超级表名称
+     * @param tableName      表名
+     * @param fieldsAndTags  行数据，包括列和标签数据
+     */
+    public void appendInsert(String databaseName, String superTableName, String tableName, Map<String, ?> fieldsAndTags) {
+        route(new RoutedRow(databaseName, superTableName, tableName, new LinkedHashMap<>(fieldsAndTags), null));
+    }
+
+    /**
+     * 异步插入一条记录，写入选择出的每个路由 （TDengine3.3版本以前使用这种写法）
+     *
+     * @param databaseName   数据库名称
+     * @param superTableName 超级表名称
+     * @param tableName      表名
+     * @param fields         列信息
+     * @param tags           标签信息
+     */
+    public void appendInsert(String databaseName, String superTableName, String tableName, Map<String, ?> fields,
+                             Map<String, ?> tags) {
+        route(new RoutedRow(databaseName, superTableName, tableName, new LinkedHashMap<>(fields), new LinkedHashMap<>(tags)));
+    }
+
+    private void route(RoutedRow row) {
+        if (closed) {
+            throw new IllegalStateException("路由已关闭");
+        }
+        for (Route route : select(row)) {
+            route.offer(row, maxBlockMillis);
+        }
+    }
+
+    private Route[] select(RoutedRow row) {
+        if (selector != null) {
+            String[] names = selector.select(row.databaseName, row.superTableName, row.tableName);
+            if (names != null && names.length > 0) {
+                if (names.length == 1) {
+                    Route route = routes.get(names[0]);
+                    if (route == null) {
+                        throw new IllegalArgumentException(StrUtil.format("路由不存在: {}", names[0]));
+                    }
+                    return new Route[]{route};
+                }
+                return resolve(names);
+            }
+        }
+        Route[] selected = databaseRoutes.get(row.databaseName);
+        return selected != null ? selected : defaultRoutes;
+    }
+
+    /**
+     * 获取路由对应的实例，可以用于查询或者同步写入
+     *
+     * @param name 路由名称
+     * @return 不存在时返回null
+     */
+    public TDengineUtil getRoute(String name) {
+        Route route = routes.get(name);
+        return route == null ? null : route.util;
+    }
+
+    /**
+     * @param name 路由名称
+     * @return 路由队列中等待编码的行数
+     */
+    public int getQueueSize(String name) {
+        return routes.get(name).queue.size();
+    }
+
+    /**
+     * @param name 路由名称
+     * @return 队列满后交给死信处理器的行数
+     */
+    public long getRejectedRows(String name) {
+        return routes.get(name).rejected.sum();
+    }
+
+    /**
+     * 等待所有路由的数据写入完毕
+     */
+    public void await() {
+        for (Route route : routes.values()) {
+            route.awaitQueue();
+            route.util.await();
+        }
+    }
+
+    /**
+     * 写入剩余数据后关闭所有路由的实例
+     */
+    @Override
+    public void close() {
+        log.info("[销毁 {}] 开始", this.getClass().getSimpleName());
+        closed = true;
+        for (Route route : routes.values()) {
+            route.awaitQueue();
+            route.thread.interrupt();
+            route.util.close();
+        }
+        log.info("[销毁 {}] 结束", this.getClass().getSimpleName());
+    }
+
+    /**
+     * 路由构建器
+     */
+    public static class Builder {
+        private final Map<String, TDengineUtil> routes = new LinkedHashMap<>();
+        private final Map<String, String[]> databaseRoutes = new HashMap<>();
+        private String[] defaultRoute;
+        private RouteSelector selector;
+        private int queueCapacity = 100000;
+        private long maxBlockMillis = Long.MAX_VALUE;
+
+        public Router build() {
+            return new Router(this);
+        }
+
+        /**
+         * 添加路由，路由关闭时会关闭这个实例
+         *
+         * @param name 路由名称
+         * @param util 这个集群的写入实例，可以有自己的缓冲区、刷写线程、本地缓存等配置
+         * @return 构建器
+         */
+        public Builder addRoute(String name, TDengineUtil util) {
+            routes.put(name, util);
+            return this;
+        }
+
+        /**
+         * 按照数据库名称路由，多个路由名称时写入每个路由
+         *
+         * @param databaseName 数据库名称
+         * @param routeNames   路由名称
+         * @return 构建器
+         */
+        public Builder setDatabaseRoute(String databaseName, String... routeNames) {
+            databaseRoutes.put(databaseName, routeNames);
+            return this;
+        }
+
+        /**
+         * 没有匹配的数据库路由时使用的路由，默认为第一个添加的路由
+         *
+         * @param routeNames 路由名称
+         * @return 构建器
+         */
+        public Builder setDefaultRoute(String... routeNames) {
+            defaultRoute = routeNames;
+            return this;
+        }
+
+        /**
+         * 自定义路由选择，优先于数据库路由
+         *
+         * @param selector 路由选择器
+         * @return 构建器
+         */
+        public Builder setRouteSelector(RouteSelector selector) {
+            this.selector = selector;
+            return this;
+        }
+
+        /**
+         * 每个路由队列的最大行数
+         * <p>
+         * 默认100000
+         *
+         * @param queueCapacity 最大行数
+         * @return 构建器
+         */
+        public Builder setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * 路由队列满时写入线程最多等待的时间，超时后这一行交给该路由的死信处理器
+         * <p>
+         * 默认 Long.MAX_VALUE，一直等待，不会丢弃数据，但是一个集群不可用时会阻塞写入这个路由的线程；
+         * 设置为0时队列满不等待，直接交给死信处理器，不可用的集群不会拖慢写入线程和其他路由
+         *
+         * @param maxBlockMillis 最多等待的毫秒数
+         * @return 构建器
+         */
+        public Builder setMaxBlockMillis(long maxBlockMillis) {
+            this.maxBlockMillis = maxBlockMillis;
+            return this;
+        }
+    }
+
+    /**
+     * 等待路由的一行数据
+     */
+    private static class RoutedRow {
+        private final String databaseName;
+        private final String superTableName;
+        private final String tableName;
+        private final Map<String, Object> fields;
+        private final Map<String, Object> tags;
+
+        private RoutedRow(String databaseName, String superTableName, String tableName, Map<String, Object> fields,
+                          Map<String, Object> tags) {
+            this.databaseName = databaseName;
+            this.superTableName = superTableName;
+            this.tableName = tableName;
+            this.fields = fields;
+            this.tags = tags;
+        }
+    }
+
+    /**
+     * 一个路由，队列中的行由路由线程写入实例的缓冲区，背压只阻塞路由线程
+     */
+    private static class Route {
+        private final Log log = LogFactory.get();
+        private final String name;
+        private final TDengineUtil util;
+        private final BlockingQueue<RoutedRow> queue;
+        private final Thread thread;
+        private final LongAdder rejected = new LongAdder();
+        /**
+         * 已经放入队列还没有写入缓冲区的行数
+         */
+        private final AtomicLong pending = new AtomicLong();
+
+        private Route(String name, TDengineUtil util, int queueCapacity) {
+            this.name = name;
+            this.util = util;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.thread = ThreadUtil.newThread(this::run, "TDengineUtil-route-" + name, true);
+        }
+
+        private void offer(RoutedRow row, long maxBlockMillis) {
+            pending.incrementAndGet();
+            boolean offered;
+            try {
+                if (maxBlockMillis <= 0) {
+                    offered = queue.offer(row);
+                } else if (maxBlockMillis == Long.MAX_VALUE) {
+                    queue.put(row);
+                    offered = true;
+                } else {
+                    offered = queue.offer(row, maxBlockMillis, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                finish();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            if (!offered) {
+                finish();
+                rejected.increment();
+                deadLetter(row, new RejectedExecutionException(StrUtil.format("路由 {} 队列已满", name)));
+            }
+        }
+
+        private void deadLetter(RoutedRow row, Throwable cause) {
+            String sql = row.tags == null ? util.genSqlv33(row.databaseName, row.superTableName, row.tableName, row.fields)
+                    : util.genSql(row.databaseName, row.superTableName, row.tableName, row.fields, row.tags);
+            util.handleDeadLetter(Collections.singletonList(sql), cause);
+        }
+
+        private void run() {
+            while (true) {
+                RoutedRow row;
+                try {
+                    row = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    if (row.tags == null) {
+                        util.appendInsert(row.databaseName, row.superTableName, row.tableName, row.fields);
+                    } else {
+                        util.appendInsert(row.databaseName, row.superTableName, row.tableName, row.fields, row.tags);
+                    }
+                } catch (Exception e) {
+                    log.error("路由 {} 写入出错: {}", name, e.getMessage());
+                    deadLetter(row, e);
+                } finally {
+                    finish();
+                }
+            }
+        }
+
+        private void finish() {
+            if (pending.decrementAndGet() == 0) {
+                synchronized (pending) {
+                    pending.notifyAll();
+                }
+            }
+        }
+
+        private void awaitQueue() {
+            synchronized (pending) {
+                while (pending.get() > 0) {
+                    try {
+                        pending.wait(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        }
+    }
+}
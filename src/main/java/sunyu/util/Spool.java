@@ -0,0 +1,219 @@
+package sunyu.util;
+
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import sunyu.util.TDengineUtil.SqlBatch;
+import sunyu.util.TDengineUtil.SqlGroup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地缓存，每个批次一个文件，文件名为递增序号
+ * <p>
+ * 文件格式: 魔数、分组数量，每个分组为 头部字节数、头部、行数、每行在values中的字符偏移、values字节数、values，字符串为UTF-8编码
+ * <p>
+ * 先写入 .tmp 文件再重命名，程序崩溃时写了一半的文件不会被重放
+ */
+class Spool {
+    private static final int MAGIC = 0x54445350;
+    private static final String SUFFIX = ".seg";
+    private static final String TMP_SUFFIX = ".tmp";
+    private final Log log = LogFactory.get();
+    private final Path dir;
+    final long maxBytes;
+    private final boolean sync;
+    private final AtomicLong nextSegment = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    private final Map<Long, Long> segmentBytes = new ConcurrentHashMap<>();
+    /**
+     * 等待重放的文件，按照序号从小到大
+     */
+    final ConcurrentSkipListSet<Long> spilled = new ConcurrentSkipListSet<>();
+    /**
+     * 写入本地缓存的批次中每行的写入结果回调，按行号顺序
+     */
+    final Map<Long, CompletableFuture<Void>[]> futures = new ConcurrentHashMap<>();
+    /**
+     * 可重试的错误重试用尽后暂停重放的截止时间，避免TDengine不可用时反复重放
+     */
+    private volatile long pausedUntil;
+    /**
+     * 刷写线程复用的编码缓冲
+     */
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<>();
+    private final ThreadLocal<CharsetEncoder> encoders = ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+    Spool(Path dir, long maxBytes, boolean sync) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.sync = sync;
+        Files.createDirectories(dir);
+        long maxSegment = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TMP_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(SUFFIX)) {
+                    long segment = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                    long size = Files.size(file);
+                    segmentBytes.put(segment, size);
+                    bytes.addAndGet(size);
+                    spilled.add(segment);
+                    maxSegment = Math.max(maxSegment, segment);
+                }
+            }
+        }
+        nextSegment.set(maxSegment + 1);
+    }
+
+    private Path path(long segment, String suffix) {
+        return dir.resolve(String.format("%020d", segment) + suffix);
+    }
+
+    /**
+     * @param groups  分组
+     * @param spilled 是否加入等待重放的队列，否则由调用方发送后删除
+     * @return 文件序号
+     */
+    long write(List<SqlGroup> groups, boolean spilled) throws IOException {
+        int capacity = 8;
+        for (SqlGroup group : groups) {
+            capacity += 12 + (group.replayHeader().length() + group.values.length()) * 3 + group.rowCount * 4;
+        }
+        ByteBuffer buffer = buffers.get();
+        if (buffer == null || buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocate(capacity);
+            buffers.set(buffer);
+        }
+        buffer.clear();
+        CharsetEncoder encoder = encoders.get();
+        buffer.putInt(MAGIC).putInt(groups.size());
+        for (SqlGroup group : groups) {
+            encode(encoder, group.replayHeader(), buffer);
+            buffer.putInt(group.rowCount);
+            for (int row = 0; row < group.rowCount; row++) {
+                buffer.putInt(group.rowOffsets[row]);
+            }
+            encode(encoder, group.values, buffer);
+        }
+        buffer.flip();
+
+        long segment = nextSegment.getAndIncrement();
+        Path tmp = path(segment, TMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (sync) {
+                channel.force(false);
+            }
+        }
+        Files.move(tmp, path(segment, SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+        long size = buffer.limit();
+        segmentBytes.put(segment, size);
+        bytes.addAndGet(size);
+        if (spilled) {
+            this.spilled.add(segment);
+        }
+        return segment;
+    }
+
+    /**
+     * 写入 字节数 + 内容，直接从StringBuilder编码，不复制成String
+     */
+    private static void encode(CharsetEncoder encoder, CharSequence chars, ByteBuffer buffer) {
+        int lengthPosition = buffer.position();
+        buffer.putInt(0);
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(chars), buffer, true);
+        encoder.flush(buffer);
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+    }
+
+    SqlBatch read(long segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path(segment, SUFFIX)));
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("文件格式不正确");
+        }
+        SqlBatch batch = new SqlBatch();
+        int groupCount = buffer.getInt();
+        for (int i = 0; i < groupCount; i++) {
+            SqlGroup group = new SqlGroup(decode(buffer));
+            group.rowCount = buffer.getInt();
+            group.rowOffsets = new int[Math.max(group.rowCount, 1)];
+            for (int row = 0; row < group.rowCount; row++) {
+                group.rowOffsets[row] = buffer.getInt();
+            }
+            group.values.append(decode(buffer));
+            batch.groups.add(group);
+            batch.length += group.header.length() + group.values.length();
+            batch.rowCount += group.rowCount;
+        }
+        return batch;
+    }
+
+    private static String decode(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * 暂停重放，TDengine不可用时等待一段时间再重放
+     */
+    void pause(long millis) {
+        pausedUntil = System.currentTimeMillis() + millis;
+    }
+
+    boolean paused() {
+        return System.currentTimeMillis() < pausedUntil;
+    }
+
+    void delete(long segment) {
+        try {
+            Files.deleteIfExists(path(segment, SUFFIX));
+        } catch (IOException e) {
+            log.error("删除本地缓存文件出错: {} {}", segment, e.getMessage());
+        }
+        Long size = segmentBytes.remove(segment);
+        if (size != null) {
+            bytes.addAndGet(-size);
+        }
+    }
+
+    /**
+     * 无法读取或者重放出错的文件改名为 .bad，不再重放，保留给人工处理
+     */
+    void quarantine(long segment) {
+        try {
+            Files.move(path(segment, SUFFIX), path(segment, ".bad"));
+        } catch (IOException e) {
+            log.error("移动本地缓存文件出错: {} {}", segment, e.getMessage());
+        }
+        Long size = segmentBytes.remove(segment);
+        if (size != null) {
+            bytes.addAndGet(-size);
+        }
+    }
+}
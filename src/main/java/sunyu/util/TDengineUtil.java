@@ -1,18 +1,78 @@
 package sunyu.util;
 
-import cn.hutool.core.collection.CollUtil;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
 import cn.hutool.core.convert.Convert;
+import cn.hutool.core.date.DatePattern;
+import cn.hutool.core.date.DateUtil;
 import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.log.Log;
 import cn.hutool.log.LogFactory;
+import com.taosdata.jdbc.TSDBConstants;
+import com.taosdata.jdbc.TaosPrepareStatement;
 
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * TDengine工具类
@@ -29,356 +89,4466 @@ public class TDengineUtil implements AutoCloseable {
         return new Builder();
     }
 
+    /**
+     * 多集群写入路由，参考 {@link Router}
+     *
+     * @return 路由构建器
+     */
+    public static Router.Builder router() {
+        return new Router.Builder();
+    }
+
     private TDengineUtil(Config config) {
         log.info("[构建 {}] 开始", this.getClass().getSimpleName());
 
-        log.info("[构建 {}] 结束", this.getClass().getSimpleName());
+        config.shards = new SqlShard[config.bufferCount];
+        for (int i = 0; i < config.bufferCount; i++) {
+            config.shards[i] = new SqlShard(config.writeMode == WriteMode.STMT ? new StmtBatch() : new SqlBatch());
+        }
+        config.pendingBatches = new Semaphore(config.bufferCount);
+        config.sqlLengthLimit = config.maxSqlLength;
+        if (config.adaptiveMinSqlLength != null) {
+            config.adaptiveSqlLength = new AdaptiveSqlLength(config, Math.min(config.adaptiveMinSqlLength, config.maxSqlLength), TimeUnit.MILLISECONDS.toNanos(config.adaptiveTargetLatencyMillis));
+            log.info("[构建 {}] 自适应SQL长度: {} ~ {} 目标刷写耗时: {}ms", this.getClass().getSimpleName(),
+                    config.adaptiveSqlLength.min, config.maxSqlLength, config.adaptiveTargetLatencyMillis);
+        }
+        // 刷写线程池和异步线程池在第一次使用时创建
+        log.info("[构建 {}] 缓冲区数量: {} 刷写线程数量: {}", this.getClass().getSimpleName(), config.bufferCount, config.flushThreads);
+        if (config.lingerMillis > 0) {
+            config.lingerExecutor = new ScheduledThreadPoolExecutor(1, ThreadUtil.newNamedThreadFactory("TDengineUtil-linger-", true));
+            long period = Math.max(config.lingerMillis / 2, 10L);
+            config.lingerExecutor.scheduleWithFixedDelay(this::flushExpiredShards, period, period, TimeUnit.MILLISECONDS);
+            log.info("[构建 {}] 缓冲区最长停留时间: {}ms", this.getClass().getSimpleName(), config.lingerMillis);
+        }
+
+        if (config.metricsEnabled || config.jmxName != null) {
+            config.builtinMetrics = new Metrics(this::bufferedBytes, () -> config.pendingCount, () -> config.sqlLengthLimit);
+            config.metricsListeners.add(0, config.builtinMetrics);
+        }
+        if (config.metricsListeners.size() == 1) {
+            config.metrics = config.metricsListeners.get(0);
+        } else if (config.metricsListeners.size() > 1) {
+            config.metrics = new CompositeMetricsListener(config.metricsListeners.toArray(new MetricsListener[0]));
+        }
+        if (config.jmxName != null) {
+            try {
+                config.jmxObjectName = new ObjectName("sunyu.util:type=TDengineUtil,name=" + ObjectName.quote(config.jmxName));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                        new StandardMBean(config.builtinMetrics, MetricsMBean.class), config.jmxObjectName);
+                log.info("[构建 {}] 注册JMX: {}", this.getClass().getSimpleName(), config.jmxObjectName);
+            } catch (Exception e) {
+                log.error("[构建 {}] 注册JMX出错: {}", this.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+
+        if (config.knownTableCacheSize > 0) {
+            config.knownTables = CacheUtil.newLRUCache(config.knownTableCacheSize, config.knownTableTtlMillis);
+            log.info("[构建 {}] 子表缓存数量: {} 有效时间: {}ms", this.getClass().getSimpleName(), config.knownTableCacheSize,
+                    config.knownTableTtlMillis);
+        }
+        if (config.pinnedConnections) {
+            config.connectionExecutor = new ScheduledThreadPoolExecutor(1, ThreadUtil.newNamedThreadFactory("TDengineUtil-connection-", true));
+            config.connectionExecutor.scheduleWithFixedDelay(this::releaseDeadPinnedConnections, config.connectionCheckMillis,
+                    config.connectionCheckMillis, TimeUnit.MILLISECONDS);
+            log.info("[构建 {}] 写入使用固定连接，健康检查间隔: {}ms", this.getClass().getSimpleName(), config.connectionCheckMillis);
+        }
+        if (config.spoolDir != null) {
+            try {
+                config.spool = new Spool(Paths.get(config.spoolDir), config.spoolMaxBytes, config.spoolSync);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            log.info("[构建 {}] 本地缓存目录: {} 待重放文件数量: {}", this.getClass().getSimpleName(), config.spoolDir,
+                    config.spool.spilled.size());
+        }
+
+        log.info("[构建 {}] 结束", this.getClass().getSimpleName());
+
+        this.config = config;
+
+        // 上次退出时没有写入的数据
+        drainSpool(false);
+    }
+
+    private static class Config {
+        private DataSource dataSource;
+        private final String insertSqlPre = "INSERT INTO";
+        private Integer maxSqlLength = 1024 * 1024;
+        /**
+         * 当前的刷写阈值，不启用自适应时等于 maxSqlLength
+         */
+        private volatile int sqlLengthLimit;
+        private Integer adaptiveMinSqlLength;
+        private Long adaptiveTargetLatencyMillis;
+        private AdaptiveSqlLength adaptiveSqlLength;
+        private Boolean showSql = false;
+        private Integer bufferCount = 1;
+        private Integer flushThreads = 0;
+        private SqlShard[] shards;
+        private Semaphore pendingBatches;
+        private volatile ExecutorService flushExecutor;
+        private Long lingerMillis = 0L;
+        private ScheduledExecutorService lingerExecutor;
+        private Integer maxRetries = 10;
+        private Long retryBackoffMillis = 1000L;
+        private Long maxRetryBackoffMillis = 30 * 1000L;
+        private Predicate<Throwable> retryableError = TDengineUtil::isRetryableError;
+        private DeadLetterHandler deadLetterHandler;
+        private final Object pendingLock = new Object();
+        private int pendingCount = 0;
+        private WriteMode writeMode = WriteMode.SQL;
+        private final Map<String, StableSchema> stableSchemas = new ConcurrentHashMap<>();
+        /**
+         * 数据库名 -> 毫秒时间戳转换为数据库精度的倍数
+         */
+        private final Map<String, Long> databaseTimestampMultipliers = new ConcurrentHashMap<>();
+        private final Map<String, Map<String, SqlTemplateSet>> sqlTemplates = new ConcurrentHashMap<>();
+        private Long timestampMultiplier;
+        private Integer fetchSize = 0;
+        private String spoolDir;
+        private Long spoolMaxBytes = 10L * 1024 * 1024 * 1024;
+        private Boolean spoolSync = false;
+        private Spool spool;
+        private Boolean pinnedConnections = false;
+        private Long connectionCheckMillis = 30 * 1000L;
+        private final ThreadLocal<PinnedConnection> pinnedConnection = new ThreadLocal<>();
+        /**
+         * 当前线程是刷写线程，只有刷写线程使用固定连接
+         */
+        private final ThreadLocal<Boolean> pinningThread = new ThreadLocal<>();
+        private final Set<PinnedConnection> pinnedConnectionSet = ConcurrentHashMap.newKeySet();
+        private ScheduledExecutorService connectionExecutor;
+        private volatile Executor asyncExecutor;
+        /**
+         * 内部创建的异步线程池，销毁时关闭
+         */
+        private ExecutorService ownedAsyncExecutor;
+        /**
+         * 创建和关闭线程池时加锁，关闭后不再创建
+         */
+        private final Object executorLock = new Object();
+        private boolean executorsClosed;
+        private Boolean virtualThreads = false;
+        /**
+         * 合并时使用的时间戳列名，为null时不合并
+         */
+        private String coalesceColumn;
+        private Integer knownTableCacheSize = 0;
+        private Long knownTableTtlMillis = 0L;
+        /**
+         * 已经写入成功的子表，`db`.`table` -> 编码好的标签值，没有启用时为null
+         */
+        private LRUCache<String, String> knownTables;
+        private final List<MetricsListener> metricsListeners = new ArrayList<>();
+        private Boolean metricsEnabled = false;
+        private String jmxName;
+        private Metrics builtinMetrics;
+        private ObjectName jmxObjectName;
+        /**
+         * 未启用监控时为null，写入和查询路径不产生额外开销
+         */
+        private MetricsListener metrics;
+    }
+
+    /**
+     * appendInsert的写入方式
+     */
+    public enum WriteMode {
+        /**
+         * 拼接sql语句写入
+         */
+        SQL,
+        /**
+         * 参数绑定写入，按子表分组后以列的方式绑定二进制数据，省去客户端格式化和服务端sql解析
+         * <p>
+         * 根据超级表结构转换数据类型，时间戳列支持Date、数字(数据库精度)和日期字符串
+         */
+        STMT
+    }
+
+    /**
+     * 写入缓冲分片，按照 数据库名.表名 路由，每个分片独立加锁
+     */
+    private static class SqlShard {
+        private WriteBatch batch;
+        /**
+         * 编码时复用的缓冲，调用方需持有分片锁
+         */
+        private final StringBuilder valuesScratch = new StringBuilder(256);
+        private final StringBuilder headerScratch = new StringBuilder(256);
+        private final StringBuilder tagsScratch = new StringBuilder(128);
+        /**
+         * 最近一次编码的3.3版本以前写法的子表信息，加入分组后清空，调用方需持有分片锁
+         */
+        private String tableKey;
+        private String tableDatabase;
+        private String knownTags;
+        /**
+         * 当前缓冲区第一条数据的写入时间
+         */
+        private long firstAppendMillis;
+        /**
+         * 等待合并的行，没有启用合并时为空
+         */
+        private final Map<CoalesceKey, CoalescedRow> coalesced = new LinkedHashMap<>();
+        /**
+         * 等待合并的行估算的大小
+         */
+        private int coalescedLength;
+
+        private SqlShard(WriteBatch batch) {
+            this.batch = batch;
+        }
+
+        /**
+         * 取出当前缓冲区内容并换上新的缓冲区，调用方需持有分片锁
+         */
+        private WriteBatch detach() {
+            WriteBatch full = batch;
+            batch = full.newEmpty();
+            return full;
+        }
+    }
+
+    /**
+     * 待写入批次
+     */
+    private abstract static class WriteBatch {
+        /**
+         * 已经写入本地缓存文件，可重试的错误重试用尽时保留文件等待重放，不交给死信处理器
+         */
+        boolean spooled;
+
+        /**
+         * 批次大小，sql写入方式为sql长度，参数绑定写入方式为估算的数据字节数
+         */
+        abstract int length();
+
+        abstract WriteBatch newEmpty();
+
+        /**
+         * 行数
+         */
+        abstract int size();
+
+        /**
+         * 是否有行需要通知写入结果
+         */
+        abstract boolean hasFutures();
+
+        /**
+         * 通知每行的写入结果
+         *
+         * @param cause 整个批次失败的原因，为null时使用每行记录的失败原因，没有失败原因的行写入成功
+         */
+        abstract void completeRows(Throwable cause);
+    }
+
+    /**
+     * 本地缓存文件中的批次遇到可重试的错误并且重试次数用尽，文件保留等待重放
+     */
+    private static class SpoolRetryException extends RuntimeException {
+        private SpoolRetryException(Throwable cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 待写入批次，目标表和列名相同的行合并到同一个分组，共用一个 `db`.`table` (...) values 头部，
+     * 生成 header (...) (...) (...) 形式的多行写入
+     */
+    static class SqlBatch extends WriteBatch {
+        final List<SqlGroup> groups = new ArrayList<>();
+        /**
+         * 3.3版本写法，相同列名模板的行共用一个分组，值为这个模板最后创建的分组
+         */
+        private final Map<SqlTemplate, SqlGroup> templateGroups = new HashMap<>();
+        /**
+         * 数据库名 -> 子表名 -> 这个子表最后一行所在的分组
+         * <p>
+         * 写入时分组按顺序执行，同一个子表的行只能加入它最后所在的分组，否则同一时间戳的部分列更新会被更早的行覆盖
+         */
+        private final Map<String, Map<String, SqlGroup>> lastTableGroups = new HashMap<>();
+        int length;
+        int rowCount;
+        private boolean hasFutures;
+
+        /**
+         * 查找头部相同并且可以保持这个子表写入顺序的分组
+         *
+         * @return 不存在时返回null
+         */
+        private SqlGroup group(SqlTemplate template, String tableName, CharSequence header) {
+            Map<String, SqlGroup> tables = lastTableGroups.get(template.databaseName);
+            SqlGroup last = tables == null ? null : tables.get(tableName);
+            if (last != null) {
+                return last.header.contentEquals(header) ? last : null;
+            }
+            return template.tagNames == null ? templateGroups.get(template) : null;
+        }
+
+        private void addRow(SqlGroup group, SqlTemplate template, String tableName, CharSequence header, CharSequence values,
+                            CompletableFuture<Void> future) {
+            if (group == null) {
+                group = new SqlGroup(header.toString());
+                groups.add(group);
+                length += group.header.length();
+                if (template.tagNames == null) {
+                    templateGroups.put(template, group);
+                }
+            }
+            lastTableGroups.computeIfAbsent(template.databaseName, key -> new HashMap<>()).put(tableName, group);
+            group.addRow(values, future);
+            length += values.length();
+            rowCount++;
+            hasFutures |= future != null;
+        }
+
+        @Override
+        int length() {
+            return length;
+        }
+
+        @Override
+        WriteBatch newEmpty() {
+            return new SqlBatch();
+        }
+
+        @Override
+        int size() {
+            return rowCount;
+        }
+
+        @Override
+        boolean hasFutures() {
+            return hasFutures;
+        }
+
+        @Override
+        void completeRows(Throwable cause) {
+            for (SqlGroup group : groups) {
+                if (group.futures == null) {
+                    continue;
+                }
+                for (int row = 0; row < group.rowCount; row++) {
+                    CompletableFuture<Void> future = group.futures[row];
+                    Throwable failure = cause != null ? cause : group.failures == null ? null : group.failures[row];
+                    if (future == null) {
+                        continue;
+                    }
+                    if (failure == null) {
+                        future.complete(null);
+                    } else {
+                        future.completeExceptionally(failure);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 记录 [fromRow, toRow) 行的失败原因，在 {@link #completeRows(Throwable)} 时通知
+         */
+        private void failRows(int fromRow, int toRow, Throwable cause) {
+            if (!hasFutures) {
+                return;
+            }
+            int base = 0;
+            for (SqlGroup group : groups) {
+                if (group.futures != null) {
+                    for (int row = Math.max(fromRow - base, 0); row < Math.min(toRow - base, group.rowCount); row++) {
+                        if (group.failures == null) {
+                            group.failures = new Throwable[group.rowCount];
+                        }
+                        group.failures[row] = cause;
+                    }
+                }
+                base += group.rowCount;
+            }
+        }
+
+        /**
+         * 按照行号顺序取出每行的写入结果回调，用于写入本地缓存后释放内存
+         */
+        @SuppressWarnings("unchecked")
+        private CompletableFuture<Void>[] futures() {
+            CompletableFuture<Void>[] futures = new CompletableFuture[rowCount];
+            int base = 0;
+            for (SqlGroup group : groups) {
+                if (group.futures != null) {
+                    System.arraycopy(group.futures, 0, futures, base, group.rowCount);
+                }
+                base += group.rowCount;
+            }
+            return futures;
+        }
+
+        /**
+         * 从本地缓存重放时，重新关联每行的写入结果回调
+         */
+        private void attachFutures(CompletableFuture<Void>[] futures) {
+            int base = 0;
+            for (SqlGroup group : groups) {
+                group.futures = Arrays.copyOfRange(futures, base, base + Math.max(group.rowCount, 1));
+                base += group.rowCount;
+            }
+            hasFutures = true;
+        }
+
+        /**
+         * 生成 [fromRow, toRow) 行的完整sql，行号按照分组顺序排列
+         */
+        private String sql(String insertSqlPre, int fromRow, int toRow) {
+            StringBuilder sql = new StringBuilder(insertSqlPre.length() + length).append(insertSqlPre);
+            int base = 0;
+            for (SqlGroup group : groups) {
+                int groupFrom = Math.max(fromRow - base, 0);
+                int groupTo = Math.min(toRow - base, group.rowCount);
+                if (groupFrom < groupTo) {
+                    sql.append(group.header).append(group.values, group.rowOffsets[groupFrom], group.rowEnd(groupTo - 1));
+                }
+                base += group.rowCount;
+                if (base >= toRow) {
+                    break;
+                }
+            }
+            return sql.toString();
+        }
+
+        /**
+         * [fromRow, toRow) 每一行单独的sql片段
+         */
+        private List<String> rows(int fromRow, int toRow) {
+            List<String> rows = new ArrayList<>(toRow - fromRow);
+            int base = 0;
+            for (SqlGroup group : groups) {
+                for (int row = Math.max(fromRow - base, 0); row < Math.min(toRow - base, group.rowCount); row++) {
+                    rows.add(group.replayHeader() + group.values.substring(group.rowOffsets[row], group.rowEnd(row)));
+                }
+                base += group.rowCount;
+            }
+            return rows;
+        }
+
+        /**
+         * 记录 [fromRow, toRow) 行中以完整头部写入成功的子表
+         */
+        private void rememberTables(int fromRow, int toRow, LRUCache<String, String> knownTables) {
+            int base = 0;
+            for (SqlGroup group : groups) {
+                if (group.tableKey != null && group.fullHeader == null && fromRow < base + group.rowCount && base < toRow) {
+                    knownTables.put(group.tableKey, group.tagValues);
+                }
+                base += group.rowCount;
+            }
+        }
+
+        /**
+         * [fromRow, toRow) 行中省略了 USING ... TAGS 的分组换回完整头部，并从子表缓存中移除
+         *
+         * @return 是否有分组被修改
+         */
+        private boolean restoreFullHeaders(int fromRow, int toRow, LRUCache<String, String> knownTables) {
+            boolean restored = false;
+            int base = 0;
+            for (SqlGroup group : groups) {
+                if (group.fullHeader != null && fromRow < base + group.rowCount && base < toRow) {
+                    knownTables.remove(group.tableKey);
+                    length += group.fullHeader.length() - group.header.length();
+                    group.header = group.fullHeader;
+                    group.fullHeader = null;
+                    restored = true;
+                }
+                base += group.rowCount;
+            }
+            return restored;
+        }
+    }
+
+    /**
+     * 共用头部的多行数据
+     */
+    static class SqlGroup {
+        String header;
+        /**
+         * 3.3版本以前写法的 `db`.`table` 和标签值，用于记录已经存在的子表，其他写法为null
+         */
+        private String tableKey;
+        private String tagValues;
+        /**
+         * 省略了 USING ... TAGS 时完整的头部，子表不存在时换回完整头部重新写入
+         */
+        private String fullHeader;
+        final StringBuilder values = new StringBuilder(256);
+        int[] rowOffsets = new int[16];
+        int rowCount;
+        /**
+         * 每行的写入结果回调，没有时为null
+         */
+        private CompletableFuture<Void>[] futures;
+        private Throwable[] failures;
+
+        SqlGroup(String header) {
+            this.header = header;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void addRow(CharSequence row, CompletableFuture<Void> future) {
+            if (rowCount == rowOffsets.length) {
+                rowOffsets = Arrays.copyOf(rowOffsets, rowCount * 2);
+            }
+            if (future != null && futures == null) {
+                futures = new CompletableFuture[rowOffsets.length];
+            }
+            if (futures != null) {
+                if (rowCount >= futures.length) {
+                    futures = Arrays.copyOf(futures, rowOffsets.length);
+                }
+                futures[rowCount] = future;
+            }
+            rowOffsets[rowCount++] = values.length();
+            values.append(row);
+        }
+
+        private int rowEnd(int row) {
+            return row + 1 < rowCount ? rowOffsets[row + 1] : values.length();
+        }
+
+        /**
+         * 写入本地缓存和死信时使用完整的头部，重放时不依赖子表缓存
+         */
+        String replayHeader() {
+            return fullHeader != null ? fullHeader : header;
+        }
+    }
+
+    /**
+     * 同一个超级表的列名模板
+     */
+    private static class SqlTemplateSet {
+        /**
+         * 每个超级表最多缓存的列名组合数量，超出后不再缓存
+         */
+        private static final int MAX_TEMPLATES = 32;
+        private volatile SqlTemplate[] templates = new SqlTemplate[0];
+    }
+
+    /**
+     * 列名模板，缓存拼接好的列名部分，只有值需要逐行编码
+     */
+    static class SqlTemplate {
+        private final String databaseName;
+        private final String[] fieldNames;
+        private final String[] tagNames;
+        /**
+         * 3.3版本写法为 " `db`.`stable` (`tbname`,`f1`,...) values " ，3.3版本以前写法为 "` USING `db`.`stable` (`t1`,...) TAGS ("
+         */
+        private final String head;
+        /**
+         * 3.3版本以前写法的 ") (`f1`,...) VALUES "
+         */
+        private final String fieldsHead;
+
+        private SqlTemplate(String databaseName, String superTableName, Map<String, ?> fields, Map<String, ?> tags) {
+            this(databaseName, superTableName, names(fields), tags == null ? null : names(tags));
+        }
+
+        /**
+         * @param tagNames 为null时使用3.3版本写法
+         */
+        SqlTemplate(String databaseName, String superTableName, String[] fieldNames, String[] tagNames) {
+            this.databaseName = databaseName;
+            this.fieldNames = fieldNames;
+            this.tagNames = tagNames;
+            StringBuilder head = new StringBuilder();
+            if (tagNames == null) {
+                head.append(" `").append(databaseName).append("`.`").append(superTableName).append("` (`tbname`");
+                appendNames(head, fieldNames, true);
+                this.head = head.append(") values ").toString();
+                this.fieldsHead = null;
+            } else {
+                head.append("` USING `").append(databaseName).append("`.`").append(superTableName).append("` (");
+                appendNames(head, tagNames, false);
+                this.head = head.append(") TAGS (").toString();
+                StringBuilder fieldsHead = new StringBuilder(") (");
+                appendNames(fieldsHead, fieldNames, false);
+                this.fieldsHead = fieldsHead.append(") VALUES ").toString();
+            }
+        }
+
+        private static String[] names(Map<String, ?> values) {
+            List<String> names = new ArrayList<>(values.size());
+            values.forEach((key, value) -> {
+                if (value != null) {
+                    names.add(key);
+                }
+            });
+            return names.toArray(new String[0]);
+        }
+
+        private static void appendNames(StringBuilder sql, String[] names, boolean leadingComma) {
+            for (int i = 0; i < names.length; i++) {
+                sql.append(i > 0 || leadingComma ? ",`" : "`").append(names[i]).append('`');
+            }
+        }
+
+        private boolean matches(Map<String, ?> fields, Map<String, ?> tags) {
+            if ((tags == null) != (tagNames == null)) {
+                return false;
+            }
+            return matches(fieldNames, fields) && (tags == null || matches(tagNames, tags));
+        }
+
+        private static boolean matches(String[] names, Map<String, ?> values) {
+            int i = 0;
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                if (i >= names.length || !names[i].equals(entry.getKey())) {
+                    return false;
+                }
+                i++;
+            }
+            return i == names.length;
+        }
+    }
+
+    /**
+     * 合并的键：库、子表、时间戳
+     */
+    private static class CoalesceKey {
+        private final String databaseName;
+        private final String tableName;
+        private final Object ts;
+        private final int hash;
+
+        private CoalesceKey(String databaseName, String tableName, Object ts) {
+            this.databaseName = databaseName;
+            this.tableName = tableName;
+            this.ts = ts;
+            this.hash = 31 * (31 * databaseName.hashCode() + tableName.hashCode()) + (ts == null ? 0 : ts.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CoalesceKey)) {
+                return false;
+            }
+            CoalesceKey key = (CoalesceKey) o;
+            return hash == key.hash && databaseName.equals(key.databaseName) && tableName.equals(key.tableName)
+                    && (ts == null ? key.ts == null : ts.equals(key.ts));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * 合并后的行
+     */
+    private static class CoalescedRow {
+        private final String databaseName;
+        private final String superTableName;
+        private final String tableName;
+        private final Map<String, Object> fields = new LinkedHashMap<>();
+        /**
+         * 3.3版本写法时为null
+         */
+        private Map<String, Object> tags;
+        private List<CompletableFuture<Void>> futures;
+
+        private CoalescedRow(String databaseName, String superTableName, String tableName) {
+            this.databaseName = databaseName;
+            this.superTableName = superTableName;
+            this.tableName = tableName;
+        }
+
+        /**
+         * 合并一次写入，null值不覆盖已有的值
+         *
+         * @return 新增的估算大小
+         */
+        private int merge(Map<String, ?> fields, Map<String, ?> tags, CompletableFuture<Void> future) {
+            int added = this.fields.isEmpty() ? tableName.length() + 8 : 0;
+            added += merge(this.fields, fields);
+            if (tags != null) {
+                if (this.tags == null) {
+                    this.tags = new LinkedHashMap<>();
+                }
+                added += merge(this.tags, tags);
+            }
+            if (future != null) {
+                if (futures == null) {
+                    futures = new ArrayList<>(1);
+                }
+                futures.add(future);
+            }
+            return added;
+        }
+
+        private static int merge(Map<String, Object> target, Map<String, ?> values) {
+            int added = 0;
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                Object value = entry.getValue();
+                if (value != null && target.put(entry.getKey(), value) == null) {
+                    added += entry.getKey().length() + (value instanceof CharSequence ? ((CharSequence) value).length() + 3 : 12);
+                }
+            }
+            return added;
+        }
+
+        /**
+         * 合并的多次写入共用一个写入结果
+         */
+        private CompletableFuture<Void> future() {
+            if (futures == null) {
+                return null;
+            }
+            if (futures.size() == 1) {
+                return futures.get(0);
+            }
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            List<CompletableFuture<Void>> merged = futures;
+            future.whenComplete((v, e) -> {
+                for (CompletableFuture<Void> f : merged) {
+                    if (e == null) {
+                        f.complete(null);
+                    } else {
+                        f.completeExceptionally(e);
+                    }
+                }
+            });
+            return future;
+        }
+    }
+
+    /**
+     * 参数绑定写入的待写入批次，保存行数据，刷写时再按照超级表结构分组绑定
+     */
+    private static class StmtBatch extends WriteBatch {
+        private final List<StmtRow> rows = new ArrayList<>();
+        private int length;
+        private boolean hasFutures;
+
+        private void add(StmtRow row) {
+            rows.add(row);
+            length += row.estimateLength();
+            hasFutures |= row.future != null;
+        }
+
+        @Override
+        int length() {
+            return length;
+        }
+
+        @Override
+        WriteBatch newEmpty() {
+            return new StmtBatch();
+        }
+
+        @Override
+        int size() {
+            return rows.size();
+        }
+
+        @Override
+        boolean hasFutures() {
+            return hasFutures;
+        }
+
+        @Override
+        void completeRows(Throwable cause) {
+            for (StmtRow row : rows) {
+                if (row.future == null) {
+                    continue;
+                }
+                Throwable failure = cause != null ? cause : row.failure;
+                if (failure == null) {
+                    row.future.complete(null);
+                } else {
+                    row.future.completeExceptionally(failure);
+                }
+            }
+        }
+    }
+
+    private static class StmtRow {
+        private final String databaseName;
+        private final String superTableName;
+        private final String tableName;
+        /**
+         * 列数据，3.3版本写法时为列和标签数据
+         */
+        private final Map<String, Object> fields;
+        /**
+         * 标签数据，3.3版本写法时为null，刷写时根据超级表结构拆分
+         */
+        private final Map<String, Object> tags;
+        /**
+         * 写入结果回调和失败原因
+         */
+        private CompletableFuture<Void> future;
+        private Throwable failure;
+
+        private StmtRow(String databaseName, String superTableName, String tableName, Map<String, ?> fields, Map<String, ?> tags) {
+            this.databaseName = databaseName;
+            this.superTableName = superTableName;
+            this.tableName = tableName;
+            this.fields = new LinkedHashMap<>(fields);
+            this.tags = tags == null ? null : new LinkedHashMap<>(tags);
+        }
+
+        private int estimateLength() {
+            int length = tableName.length() + 8;
+            for (Object value : fields.values()) {
+                length += value instanceof CharSequence ? ((CharSequence) value).length() : 8;
+            }
+            return length;
+        }
+    }
+
+    /**
+     * 超级表结构，来自 DESCRIBE 语句
+     */
+    private static class StableSchema {
+        private final Map<String, StableColumn> columns = new HashMap<>();
+        /**
+         * 毫秒时间戳转换为数据库精度的倍数
+         */
+        private long timestampMultiplier = 1;
+    }
+
+    private static class StableColumn {
+        /**
+         * 参数绑定写入支持的类型，无符号整数、VARBINARY、GEOMETRY、DECIMAL 等类型需要使用sql方式写入
+         */
+        private static final Set<String> STMT_TYPES = new HashSet<>(Arrays.asList("TIMESTAMP", "BOOL", "TINYINT", "SMALLINT",
+                "INT", "BIGINT", "FLOAT", "DOUBLE", "BINARY", "VARCHAR", "NCHAR", "JSON"));
+        private final String name;
+        private final String type;
+        private final int length;
+        private final boolean tag;
+        private final boolean supported;
+
+        private StableColumn(String name, String type, int length, boolean tag) {
+            this.name = name;
+            this.type = type;
+            this.length = length;
+            this.tag = tag;
+            this.supported = STMT_TYPES.contains(type) && (!"JSON".equals(type) || tag);
+        }
+    }
+
+    /**
+     * 参数绑定写入的分组，同一个超级表、同样的标签名和列名的行使用同一个预编译语句
+     */
+    private static class StmtGroup {
+        private final String key;
+        private final String databaseName;
+        private final StableSchema schema;
+        private final StableColumn[] tagColumns;
+        private final StableColumn[] fieldColumns;
+        private final String sql;
+        private final Map<String, List<StmtRow>> tableRows = new LinkedHashMap<>();
+        private StmtRow[] rows;
+
+        private StmtGroup(String key, String databaseName, String superTableName, StableSchema schema,
+                          StableColumn[] tagColumns, StableColumn[] fieldColumns) {
+            this.key = key;
+            this.databaseName = databaseName;
+            this.schema = schema;
+            this.tagColumns = tagColumns;
+            this.fieldColumns = fieldColumns;
+            // INSERT INTO ? USING `databaseName`.`superTableName` (`tagName1`,...) TAGS (?,...) (`fieldName1`,...) VALUES (?,...)
+            StringBuilder sql = new StringBuilder("INSERT INTO ? USING `").append(databaseName).append("`.`")
+                    .append(superTableName).append("` (");
+            appendNames(sql, tagColumns);
+            sql.append(") TAGS (");
+            appendMarks(sql, tagColumns.length);
+            sql.append(") (");
+            appendNames(sql, fieldColumns);
+            sql.append(") VALUES (");
+            appendMarks(sql, fieldColumns.length);
+            this.sql = sql.append(")").toString();
+        }
+
+        private static void appendNames(StringBuilder sql, StableColumn[] columns) {
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i == 0 ? "`" : ",`").append(columns[i].name).append('`');
+            }
+        }
+
+        private static void appendMarks(StringBuilder sql, int count) {
+            for (int i = 0; i < count; i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+        }
+
+        /**
+         * 同一子表的行放在一起
+         */
+        private StmtRow[] rows() {
+            if (rows == null) {
+                List<StmtRow> all = new ArrayList<>();
+                tableRows.values().forEach(all::addAll);
+                rows = all.toArray(new StmtRow[0]);
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * 一个批次的参数绑定分组，按创建顺序写入
+     * <p>
+     * 同一个子表的行只能加入它最后所在的分组，列不同时创建新的分组，否则同一时间戳的部分列更新会被更早的行覆盖
+     */
+    private static class StmtGroups {
+        private final List<StmtGroup> groups = new ArrayList<>();
+        /**
+         * 分组key -> 这个key最后创建的分组
+         */
+        private final Map<String, StmtGroup> keyGroups = new HashMap<>();
+        /**
+         * 数据库名.子表名 -> 这个子表最后一行所在的分组
+         */
+        private final Map<String, StmtGroup> lastTableGroups = new HashMap<>();
+
+        private void add(String key, StmtRow row, Supplier<StmtGroup> newGroup) {
+            String table = row.databaseName + '.' + row.tableName;
+            StmtGroup last = lastTableGroups.get(table);
+            StmtGroup group = last != null ? (last.key.equals(key) ? last : null) : keyGroups.get(key);
+            if (group == null) {
+                group = newGroup.get();
+                groups.add(group);
+                keyGroups.put(key, group);
+            }
+            lastTableGroups.put(table, group);
+            group.tableRows.computeIfAbsent(row.tableName, k -> new ArrayList<>()).add(row);
+        }
+    }
+
+    /**
+     * 死信处理器，处理重试后仍然写入失败的数据
+     */
+    @FunctionalInterface
+    public interface DeadLetterHandler {
+        /**
+         * 处理写入失败的数据
+         *
+         * @param insertSqlPre sql前缀，与每行sql片段拼接后即可重新执行
+         * @param rows         写入失败的行sql片段(不包含 INSERT INTO)
+         * @param cause        最后一次失败的异常
+         */
+        void handle(String insertSqlPre, List<String> rows, Throwable cause);
+    }
+
+    public static class Builder {
+        private final Config config = new Config();
+
+        public TDengineUtil build() {
+            return new TDengineUtil(config);
+        }
+
+        /**
+         * 设置数据源
+         *
+         * @param dataSource 数据源
+         * @return 构建器
+         */
+        public Builder dataSource(DataSource dataSource) {
+            config.dataSource = dataSource;
+            return this;
+        }
+
+        /**
+         * 设置最大SQL长度
+         * <p>
+         * 默认1024 * 1024字节
+         *
+         * @param maxSqlLength 最大SQL长度
+         * @return 构建器
+         */
+        public Builder setMaxSqlLength(int maxSqlLength) {
+            config.maxSqlLength = maxSqlLength;
+            return this;
+        }
+
+        /**
+         * 启用自适应SQL长度，在 [minSqlLength, maxSqlLength] 之间根据刷写耗时和错误自动调整刷写阈值
+         * <p>
+         * 写满的批次耗时低于目标时阈值逐步增加；耗时超过目标时按比例减少；sql过长、超时时减半，
+         * 其中上限为 {@link #setMaxSqlLength(int)}，从上限开始调整
+         *
+         * @param minSqlLength        最小SQL长度
+         * @param targetLatencyMillis 每个批次的目标写入耗时
+         * @return 构建器
+         */
+        public Builder setAdaptiveSqlLength(int minSqlLength, long targetLatencyMillis) {
+            config.adaptiveMinSqlLength = minSqlLength;
+            config.adaptiveTargetLatencyMillis = targetLatencyMillis;
+            return this;
+        }
+
+        /**
+         * 是否显示执行SQL
+         * <p>
+         * 默认false
+         *
+         * @param showSql 是否显示执行SQL
+         * @return 构建器
+         */
+        public Builder setShowSql(boolean showSql) {
+            config.showSql = showSql;
+            return this;
+        }
+
+        /**
+         * 设置写入缓冲区数量
+         * <p>
+         * 数据按照 数据库名.表名 分配到不同的缓冲区，每个缓冲区独立加锁，缓冲区写满后交给后台刷写线程执行(刷写线程数量为0时由调用线程写入)；
+         * 同时也是允许排队等待刷写的批次上限，全部缓冲区都处于写满待刷写状态时，appendInsert才会阻塞
+         * <p>
+         * 默认1
+         *
+         * @param bufferCount 缓冲区数量
+         * @return 构建器
+         */
+        public Builder setBufferCount(int bufferCount) {
+            if (bufferCount < 1) {
+                throw new IllegalArgumentException("bufferCount 必须大于0");
+            }
+            config.bufferCount = bufferCount;
+            return this;
+        }
+
+        /**
+         * 设置后台刷写线程数量
+         * <p>
+         * 设置为0时由写满缓冲区的调用线程直接写入，不创建线程池，写入出错时在调用线程中处理，appendInsert 返回时批次已经写入；
+         * 大于0时启用后台刷写，多个批次可以并行写入TDengine，建议不超过连接池最大连接数，刷写线程池在第一次刷写时创建
+         * <p>
+         * 默认0
+         *
+         * @param flushThreads 刷写线程数量
+         * @return 构建器
+         */
+        public Builder setFlushThreads(int flushThreads) {
+            if (flushThreads < 0) {
+                throw new IllegalArgumentException("flushThreads 不能小于0");
+            }
+            config.flushThreads = flushThreads;
+            return this;
+        }
+
+        /**
+         * 设置缓冲区数据最长停留时间，单位毫秒
+         * <p>
+         * 后台定时检查所有缓冲区，非空且第一条数据停留超过该时间的缓冲区会被提交刷写，
+         * 保证低频数据也能在有限时间内写入；未写满的缓冲区仍然按照maxSqlLength触发刷写
+         * <p>
+         * 默认0，不启用
+         *
+         * @param lingerMillis 最长停留时间
+         * @return 构建器
+         */
+        public Builder setLingerMillis(long lingerMillis) {
+            if (lingerMillis < 0) {
+                throw new IllegalArgumentException("lingerMillis 不能小于0");
+            }
+            config.lingerMillis = lingerMillis;
+            return this;
+        }
+
+        /**
+         * 设置appendInsert的写入方式
+         * <p>
+         * 默认{@link WriteMode#SQL}
+         *
+         * @param writeMode 写入方式
+         * @return 构建器
+         */
+        public Builder setWriteMode(WriteMode writeMode) {
+            config.writeMode = writeMode;
+            return this;
+        }
+
+        /**
+         * 设置数据库时间戳精度，sql写入方式会将Date类型的值转换为该精度的时间戳
+         * <p>
+         * 不设置时Date类型的值写为带毫秒的日期字符串 'yyyy-MM-dd HH:mm:ss.SSS' ，任何精度的数据库都可以写入
+         *
+         * @param precision 时间戳精度，ms、us或ns
+         * @return 构建器
+         */
+        public Builder setTimestampPrecision(String precision) {
+            switch (precision) {
+                case "ms":
+                    config.timestampMultiplier = 1L;
+                    break;
+                case "us":
+                    config.timestampMultiplier = 1000L;
+                    break;
+                case "ns":
+                    config.timestampMultiplier = 1000_000L;
+                    break;
+                default:
+                    throw new IllegalArgumentException("precision 只能是 ms、us 或 ns");
+            }
+            return this;
+        }
+
+        /**
+         * 写入时每个刷写线程固定使用一个连接和一个复用的Statement，不再每个批次从连接池借用和归还
+         * <p>
+         * 适用于WebSocket连接，批次小而频繁时可以明显减少延迟；查询、insert、executeSql、异步方法和批量维护仍然每次从连接池借用
+         * <p>
+         * 每个刷写线程占用一个连接，连接池大小需要大于 flushThreads ；刷写线程数量为0时不固定连接，
+         * 刷写线程结束或者关闭时连接归还连接池
+         * <p>
+         * 默认false
+         *
+         * @param pinnedConnections 是否固定连接
+         * @return 构建器
+         */
+        public Builder setPinnedConnections(boolean pinnedConnections) {
+            config.pinnedConnections = pinnedConnections;
+            return this;
+        }
+
+        /**
+         * 设置固定连接的健康检查间隔，连接距离上次检查超过这个时间，使用前先检查连接是否可用，不可用时重新连接
+         * <p>
+         * 默认30秒
+         *
+         * @param connectionCheckMillis 检查间隔毫秒数
+         * @return 构建器
+         */
+        public Builder setConnectionCheckMillis(long connectionCheckMillis) {
+            config.connectionCheckMillis = connectionCheckMillis;
+            return this;
+        }
+
+        /**
+         * 启用最后值合并，缓冲区中 库、子表、时间戳 相同的行合并为一行，后写入的非null值覆盖先写入的值
+         * <p>
+         * TDengine对同一子表同一时间戳只保留最后一次写入，网关重发或者分多次上报同一个点时，可以减少写入量。
+         * 只合并同一个缓冲区中的数据，已经提交刷写的数据不会再合并。
+         * 时间戳可以是Date、日期字符串或者数据库精度的数字，转换为数据库精度后比较；没有时间戳的行不合并，按写入顺序写入
+         *
+         * @param tsColumn 时间戳列名，比如 ts
+         * @return 构建器
+         */
+        public Builder setCoalesceColumn(String tsColumn) {
+            config.coalesceColumn = tsColumn;
+            return this;
+        }
+
+        /**
+         * 设置异步方法使用的线程池，也用于通知 appendInsertAsync 每行的写入结果
+         * <p>
+         * 默认使用内部线程池，第一次使用时创建，线程数为CPU核数的2倍，最少8个，空闲60秒后回收
+         *
+         * @param asyncExecutor 线程池，由调用方负责关闭
+         * @return 构建器
+         */
+        public Builder setAsyncExecutor(Executor asyncExecutor) {
+            config.asyncExecutor = asyncExecutor;
+            return this;
+        }
+
+        /**
+         * 异步方法使用虚拟线程，每个任务一个虚拟线程，JDBC调用不再占用平台线程
+         * <p>
+         * 需要JDK21及以上版本运行，低版本时使用默认线程池
+         * <p>
+         * 默认false
+         *
+         * @param virtualThreads 是否使用虚拟线程
+         * @return 构建器
+         */
+        public Builder setVirtualThreads(boolean virtualThreads) {
+            config.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * 设置查询时每次从服务端获取的行数，流式查询时可以控制内存占用
+         * <p>
+         * 默认0，使用驱动默认值
+         *
+         * @param fetchSize 每次获取的行数
+         * @return 构建器
+         */
+        public Builder setFetchSize(int fetchSize) {
+            config.fetchSize = fetchSize;
+            return this;
+        }
+
+        /**
+         * 是否启用内置监控指标，通过 {@link TDengineUtil#getMetrics()} 获取
+         * <p>
+         * 默认false
+         *
+         * @param metricsEnabled 是否启用
+         * @return 构建器
+         */
+        public Builder setMetricsEnabled(boolean metricsEnabled) {
+            config.metricsEnabled = metricsEnabled;
+            return this;
+        }
+
+        /**
+         * 启用内置监控指标，并注册为JMX MBean，ObjectName为 sunyu.util:type=TDengineUtil,name="jmxName"
+         *
+         * @param jmxName 名称，同一个JVM中不能重复
+         * @return 构建器
+         */
+        public Builder setJmxName(String jmxName) {
+            config.jmxName = jmxName;
+            return this;
+        }
+
+        /**
+         * 添加监控监听器，可以对接自己的监控系统，可以添加多个
+         *
+         * @param metricsListener 监听器
+         * @return 构建器
+         */
+        public Builder addMetricsListener(MetricsListener metricsListener) {
+            config.metricsListeners.add(metricsListener);
+            return this;
+        }
+
+        /**
+         * 设置批次写入失败后的最大重试次数
+         * <p>
+         * 只有可重试的异常(连接断开、超时等)才会重试，重试用尽的批次交给死信处理器
+         * <p>
+         * 默认10，按照默认退避时间大约重试3分钟；-1表示一直重试直到写入成功，
+         * 这时没有被识别为不可重试的异常会让刷写线程一直重试同一个批次
+         *
+         * @param maxRetries 最大重试次数
+         * @return 构建器
+         */
+        public Builder setMaxRetries(int maxRetries) {
+            config.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * 设置重试退避时间，单位毫秒
+         * <p>
+         * 第n次重试等待 min(retryBackoffMillis * 2^(n-1), maxRetryBackoffMillis)，并在后一半区间内随机抖动
+         * <p>
+         * 默认1000毫秒，最大30000毫秒
+         *
+         * @param retryBackoffMillis    初始退避时间
+         * @param maxRetryBackoffMillis 最大退避时间
+         * @return 构建器
+         */
+        public Builder setRetryBackoff(long retryBackoffMillis, long maxRetryBackoffMillis) {
+            if (retryBackoffMillis < 0 || maxRetryBackoffMillis < retryBackoffMillis) {
+                throw new IllegalArgumentException("retryBackoffMillis 不能小于0，且不能大于 maxRetryBackoffMillis");
+            }
+            config.retryBackoffMillis = retryBackoffMillis;
+            config.maxRetryBackoffMillis = maxRetryBackoffMillis;
+            return this;
+        }
+
+        /**
+         * 设置可重试异常的判断规则
+         * <p>
+         * 不可重试的批次会被二分拆分，直到定位出有问题的行，交给死信处理器
+         * <p>
+         * 默认按照 SQLState、TDengine错误码和异常信息判断，语法错误、数据错误、sql过长、表或列不存在等为不可重试，其余异常可重试
+         *
+         * @param retryableError 返回true表示可以重试
+         * @return 构建器
+         */
+        public Builder setRetryableError(Predicate<Throwable> retryableError) {
+            config.retryableError = retryableError;
+            return this;
+        }
+
+        /**
+         * 设置死信处理器
+         * <p>
+         * 默认将失败的sql记录到错误日志
+         *
+         * @param deadLetterHandler 死信处理器
+         * @return 构建器
+         */
+        public Builder setDeadLetterHandler(DeadLetterHandler deadLetterHandler) {
+            config.deadLetterHandler = deadLetterHandler;
+            return this;
+        }
+
+        /**
+         * 设置本地缓存目录，启用后每个批次发送前先写入目录中的一个文件，写入完成后删除
+         * <p>
+         * TDengine不可用时，排队批次超过缓冲区数量的部分写入本地文件后释放内存，不再阻塞写入线程，恢复后自动重放；
+         * 程序重启时会重放上次没有写入完成的文件，已发送但还没删除的文件会被重复写入，时间戳相同的数据会覆盖，不会重复
+         * <p>
+         * 可重试的错误重试次数用尽时批次不交给死信处理器，文件保留在重放队列中，暂停重放 maxRetryBackoffMillis 后，
+         * 由下一次写入或者await继续重放；只有不可重试的错误行进入死信
+         * <p>
+         * 重放的数据晚于新数据写入，相同时间戳的数据以最后写入的为准
+         *
+         * @param spoolDir 目录，一个目录只能给一个实例使用
+         * @return 构建器
+         */
+        public Builder setSpoolDir(String spoolDir) {
+            config.spoolDir = spoolDir;
+            return this;
+        }
+
+        /**
+         * 设置本地缓存文件的最大总大小，超出后写入线程重新阻塞等待
+         * <p>
+         * 默认10G
+         *
+         * @param spoolMaxBytes 最大字节数
+         * @return 构建器
+         */
+        public Builder setSpoolMaxBytes(long spoolMaxBytes) {
+            config.spoolMaxBytes = spoolMaxBytes;
+            return this;
+        }
+
+        /**
+         * 本地缓存文件写入后是否调用fsync，开启后断电也不会丢失，但是每个批次都要等待磁盘
+         * <p>
+         * 默认false，进程崩溃不会丢失
+         *
+         * @param spoolSync 是否fsync
+         * @return 构建器
+         */
+        public Builder setSpoolSync(boolean spoolSync) {
+            config.spoolSync = spoolSync;
+            return this;
+        }
+
+        /**
+         * 启用子表缓存，只对3.3版本以前的 USING ... TAGS 写法生效
+         * <p>
+         * 子表以完整头部写入成功后记录标签值，之后标签值相同的行省略 USING ... TAGS ，减少sql长度和服务端解析；
+         * 标签值变化时重新带上 USING ... TAGS ，写入返回子表不存在时换回完整头部重新写入
+         *
+         * @param maxTables 最多缓存的子表数量，超出后淘汰最久未使用的，0不启用
+         * @param ttlMillis 缓存有效时间，过期后下一次写入重新带上 USING ... TAGS ，0不过期
+         * @return 构建器
+         */
+        public Builder setKnownTableCache(int maxTables, long ttlMillis) {
+            config.knownTableCacheSize = maxTables;
+            config.knownTableTtlMillis = ttlMillis;
+            return this;
+        }
+
+        /**
+         * 将写入失败的数据追加到文件，每行一条完整的insert语句，可以直接重新执行
+         *
+         * @param deadLetterFile 死信文件路径
+         * @return 构建器
+         */
+        public Builder setDeadLetterFile(String deadLetterFile) {
+            Path path = Paths.get(deadLetterFile);
+            config.deadLetterHandler = (insertSqlPre, rows, cause) -> {
+                List<String> lines = new ArrayList<>(rows.size());
+                for (String row : rows) {
+                    lines.add(insertSqlPre + row);
+                }
+                synchronized (path) {
+                    try {
+                        Files.write(path, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            return this;
+        }
+    }
+
+    /**
+     * 实体对应的超级表
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    public @interface Table {
+        /**
+         * @return 数据库名称
+         */
+        String database();
+
+        /**
+         * @return 超级表名称
+         */
+        String superTable();
+
+        /**
+         * @return true时使用 USING ... TAGS 写法(TDengine3.3版本以前)，默认使用3.3版本写法
+         */
+        boolean usingTags() default false;
+    }
+
+    /**
+     * 子表名字段，必须是String类型；查询时映射 tbname 列
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.FIELD)
+    public @interface TableName {
+    }
+
+    /**
+     * 时间戳列，写入时放在第一列
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.FIELD)
+    public @interface Ts {
+        /**
+         * @return 列名，默认为字段名
+         */
+        String value() default "";
+    }
+
+    /**
+     * 标签列
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.FIELD)
+    public @interface Tag {
+        /**
+         * @return 标签名，默认为字段名
+         */
+        String value() default "";
+    }
+
+    /**
+     * 普通列，没有注解的非static、非transient字段也按照普通列处理
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.FIELD)
+    public @interface Column {
+        /**
+         * @return 列名，默认为字段名
+         */
+        String value() default "";
+
+        /**
+         * @return 是否忽略这个字段
+         */
+        boolean ignore() default false;
+    }
+
+    /**
+     * 当前的刷写阈值，启用自适应SQL长度时会随写入情况变化
+     *
+     * @return 字节数
+     */
+    public int getSqlLengthLimit() {
+        return config.sqlLengthLimit;
+    }
+
+    /**
+     * 自适应SQL长度，AIMD(加性增、乘性减)调整刷写阈值
+     * <p>
+     * 只根据接近阈值的批次调整，linger、await 提交的小批次不代表阈值的效果
+     */
+    private static class AdaptiveSqlLength {
+        private final Log log = LogFactory.get();
+        private final Config config;
+        private final int min;
+        private final int max;
+        private final int step;
+        private final long targetLatencyNanos;
+        private int limit;
+
+        /**
+         * 上限为 config.maxSqlLength，调整结果写入 config.sqlLengthLimit
+         */
+        private AdaptiveSqlLength(Config config, int min, long targetLatencyNanos) {
+            this.config = config;
+            this.min = min;
+            this.max = config.maxSqlLength;
+            this.step = Math.max((max - min) / 16, 1024);
+            this.targetLatencyNanos = targetLatencyNanos;
+            this.limit = max;
+        }
+
+        private synchronized void onFlush(int length, long latencyNanos) {
+            if (length < limit / 2) {
+                return;
+            }
+            if (latencyNanos > targetLatencyNanos) {
+                update((int) (limit * 0.75), "刷写耗时 " + TimeUnit.NANOSECONDS.toMillis(latencyNanos) + "ms");
+            } else {
+                update(limit + step, null);
+            }
+        }
+
+        /**
+         * sql过长、超时说明批次超出了服务端的承受能力，阈值减半
+         */
+        private synchronized void onError(SQLException e, int length) {
+            String message = e.getMessage();
+            boolean tooLong = message != null && StrUtil.containsAnyIgnoreCase(message, "too long", "too large");
+            boolean timeout = e instanceof SQLTimeoutException
+                    || (message != null && StrUtil.containsAnyIgnoreCase(message, "timeout", "timed out"));
+            if ((!tooLong && !timeout) || (tooLong && length <= min)) {
+                // 单行超长是数据问题，不调整
+                return;
+            }
+            // sql过长时以出错的长度为准，避免阈值仍然大于服务端限制
+            int base = tooLong ? Math.min(limit, length) : limit;
+            update(base / 2, message);
+        }
+
+        private void update(int newLimit, String reason) {
+            newLimit = Math.max(min, Math.min(max, newLimit));
+            if (reason != null && newLimit != limit) {
+                log.debug("调整SQL长度 {} -> {}: {}", limit, newLimit, reason);
+            }
+            limit = newLimit;
+            config.sqlLengthLimit = newLimit;
+        }
+    }
+
+    /**
+     * 获取内置监控指标
+     *
+     * @return 未启用时返回null，参考 {@link Builder#setMetricsEnabled(boolean)}
+     */
+    public Metrics getMetrics() {
+        return config.builtinMetrics;
+    }
+
+    /**
+     * 缓冲区中等待刷写的数据大小，不加锁读取，是近似值
+     */
+    private long bufferedBytes() {
+        long bytes = 0;
+        for (SqlShard shard : config.shards) {
+            bytes += shard.batch.length() + shard.coalescedLength;
+        }
+        return bytes;
+    }
+
+    /**
+     * 回收资源
+     */
+    @Override
+    public void close() {
+        log.info("[销毁 {}] 开始", this.getClass().getSimpleName());
+        if (config.lingerExecutor != null) {
+            config.lingerExecutor.shutdownNow();
+        }
+        await();
+        synchronized (config.executorLock) {
+            config.executorsClosed = true;
+        }
+        if (config.flushExecutor != null) {
+            config.flushExecutor.shutdown();
+        }
+        if (config.ownedAsyncExecutor != null) {
+            config.ownedAsyncExecutor.shutdown();
+        }
+        if (config.connectionExecutor != null) {
+            config.connectionExecutor.shutdownNow();
+            for (PinnedConnection pinned : config.pinnedConnectionSet) {
+                releasePinnedConnection(pinned);
+            }
+        }
+        if (config.jmxObjectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(config.jmxObjectName);
+            } catch (Exception e) {
+                log.warn("注销JMX出错: {}", e.getMessage());
+            }
+        }
+        log.info("[销毁 {}] 结束", this.getClass().getSimpleName());
+    }
+
+    private SqlShard shardOf(String databaseName, String tableName) {
+        if (config.shards.length == 1) {
+            return config.shards[0];
+        }
+        int hash = 31 * databaseName.hashCode() + tableName.hashCode();
+        return config.shards[(hash & Integer.MAX_VALUE) % config.shards.length];
+    }
+
+    /**
+     * 在分片锁内将一行数据编码到缓冲区，头部相同的行合并写入，写满后将之前的数据交给刷写线程
+     */
+    private void appendRow(SqlShard shard, String databaseName, String superTableName, String tableName,
+                           Map<String, ?> fields, Map<String, ?> tags, CompletableFuture<Void> future) {
+        if (config.coalesceColumn != null) {
+            appendCoalesced(shard, databaseName, superTableName, tableName, fields, tags, future);
+            return;
+        }
+        WriteBatch fullBatch;
+        MetricsListener metrics = config.metrics;
+        long lockStart = metrics == null ? 0 : System.nanoTime();
+        int added;
+        long blockedNanos;
+        synchronized (shard) {
+            blockedNanos = metrics == null ? 0 : System.nanoTime() - lockStart;
+            int before = shard.batch.length();
+            fullBatch = encodeToShard(shard, databaseName, superTableName, tableName, fields, tags, future);
+            added = shard.batch.length() - (fullBatch == null ? before : 0);
+        }
+        if (metrics != null) {
+            metrics.onAppend(1, added, blockedNanos);
+        }
+        if (fullBatch != null) {
+            submitBatch(fullBatch);
+        }
+    }
+
+    /**
+     * 将一行数据编码到分片的缓冲区，调用方需持有分片锁
+     *
+     * @return 缓冲区写满时取出的批次，否则返回null
+     */
+    private WriteBatch encodeToShard(SqlShard shard, String databaseName, String superTableName, String tableName,
+                                     Map<String, ?> fields, Map<String, ?> tags, CompletableFuture<Void> future) {
+        SqlTemplate template = sqlTemplate(databaseName, superTableName, fields, tags);
+        StringBuilder values = shard.valuesScratch;
+        values.setLength(0);
+        appendRowValues(values, template, tableName, fields);
+        CharSequence header = template.head;
+        if (tags != null) {
+            shard.tagsScratch.setLength(0);
+            appendValues(shard.tagsScratch, tags, false);
+            header = legacyHeader(shard, template, databaseName, tableName);
+        }
+        return addEncodedRow(shard, template, tableName, header, values, future);
+    }
+
+    /**
+     * 编码3.3版本以前写法的头部，标签值已经编码在 tagsScratch 中，调用方需持有分片锁
+     * <p>
+     * 启用子表缓存时，已经写入成功并且标签值没有变化的子表省略 USING ... TAGS ，生成 `db`.`table` (...) VALUES
+     */
+    private CharSequence legacyHeader(SqlShard shard, SqlTemplate template, String databaseName, String tableName) {
+        StringBuilder header = shard.headerScratch;
+        header.setLength(0);
+        header.append(" `").append(databaseName).append("`.`").append(tableName);
+        if (config.knownTables != null) {
+            shard.tableKey = databaseName + '.' + tableName;
+            shard.tableDatabase = databaseName;
+            String knownTags = config.knownTables.get(shard.tableKey, false);
+            if (knownTags != null && knownTags.contentEquals(shard.tagsScratch)) {
+                // fieldsHead 为 ") (`f1`,...) VALUES "
+                shard.knownTags = knownTags;
+                return header.append("` ").append(template.fieldsHead, 2, template.fieldsHead.length());
+            }
+        }
+        return header.append(template.head).append(shard.tagsScratch).append(template.fieldsHead);
+    }
+
+    /**
+     * 将编码好的一行加入分片的缓冲区，调用方需持有分片锁
+     *
+     * @return 缓冲区写满时取出的批次，否则返回null
+     */
+    private WriteBatch addEncodedRow(SqlShard shard, SqlTemplate template, String tableName, CharSequence header,
+                                     CharSequence values, CompletableFuture<Void> future) {
+        WriteBatch fullBatch = null;
+        SqlBatch batch = (SqlBatch) shard.batch;
+        SqlGroup group = batch.group(template, tableName, header);
+        int added = values.length() + (group == null ? header.length() : 0);
+        if (batch.rowCount > 0 && config.insertSqlPre.length() + batch.length() + added >= config.sqlLengthLimit) {
+            fullBatch = shard.detach();
+            batch = (SqlBatch) shard.batch;
+            group = null;
+        }
+        if (batch.rowCount == 0 && shard.coalesced.isEmpty()) {
+            shard.firstAppendMillis = System.currentTimeMillis();
+        }
+        batch.addRow(group, template, tableName, header, values, future);
+        if (shard.tableKey != null) {
+            if (group == null) {
+                SqlGroup created = batch.groups.get(batch.groups.size() - 1);
+                created.tableKey = shard.tableKey;
+                if (shard.knownTags != null) {
+                    created.tagValues = shard.knownTags;
+                    created.fullHeader = new StringBuilder(header.length() + template.head.length() + shard.knownTags.length())
+                            .append(" `").append(shard.tableDatabase).append("`.`").append(tableName).append(template.head)
+                            .append(shard.knownTags).append(template.fieldsHead).toString();
+                } else {
+                    created.tagValues = shard.tagsScratch.toString();
+                }
+            }
+            shard.tableKey = null;
+            shard.tableDatabase = null;
+            shard.knownTags = null;
+        }
+        return fullBatch;
+    }
+
+    private void appendStmt(SqlShard shard, StmtRow row) {
+        if (config.coalesceColumn != null) {
+            appendCoalesced(shard, row.databaseName, row.superTableName, row.tableName, row.fields, row.tags, row.future);
+            return;
+        }
+        WriteBatch fullBatch;
+        MetricsListener metrics = config.metrics;
+        long lockStart = metrics == null ? 0 : System.nanoTime();
+        long blockedNanos;
+        synchronized (shard) {
+            blockedNanos = metrics == null ? 0 : System.nanoTime() - lockStart;
+            fullBatch = addStmtToShard(shard, row);
+        }
+        if (metrics != null) {
+            metrics.onAppend(1, row.estimateLength(), blockedNanos);
+        }
+        if (fullBatch != null) {
+            submitBatch(fullBatch);
+        }
+    }
+
+    /**
+     * 调用方需持有分片锁
+     *
+     * @return 缓冲区写满时取出的批次，否则返回null
+     */
+    private WriteBatch addStmtToShard(SqlShard shard, StmtRow row) {
+        if (shard.batch.length() == 0 && shard.coalesced.isEmpty()) {
+            shard.firstAppendMillis = System.currentTimeMillis();
+        }
+        ((StmtBatch) shard.batch).add(row);
+        if (shard.batch.length() >= config.sqlLengthLimit) {
+            return shard.detach();
+        }
+        return null;
+    }
+
+    /**
+     * 按照 库、子表、时间戳 合并到分片的待合并数据中，后写入的非null值覆盖先写入的值，
+     * 待合并数据达到批次大小时编码到缓冲区并提交
+     */
+    private void appendCoalesced(SqlShard shard, String databaseName, String superTableName, String tableName,
+                                 Map<String, ?> fields, Map<String, ?> tags, CompletableFuture<Void> future) {
+        Object ts = coalesceKeyValue(databaseName, fields);
+        List<WriteBatch> fullBatches = null;
+        MetricsListener metrics = config.metrics;
+        long lockStart = metrics == null ? 0 : System.nanoTime();
+        int added;
+        long blockedNanos;
+        synchronized (shard) {
+            blockedNanos = metrics == null ? 0 : System.nanoTime() - lockStart;
+            if (shard.batch.length() == 0 && shard.coalesced.isEmpty()) {
+                shard.firstAppendMillis = System.currentTimeMillis();
+            }
+            // 没有时间戳的行使用唯一的键，不会合并，和其他行一样按写入顺序排队，不会先于同一子表之前写入的行
+            CoalesceKey key = new CoalesceKey(databaseName, tableName, ts == null ? new Object() : ts);
+            CoalescedRow row = shard.coalesced.get(key);
+            if (row == null) {
+                row = new CoalescedRow(databaseName, superTableName, tableName);
+                shard.coalesced.put(key, row);
+            }
+            added = row.merge(fields, tags, future);
+            shard.coalescedLength += added;
+            if (shard.coalescedLength >= config.sqlLengthLimit) {
+                fullBatches = detachAll(shard);
+            }
+        }
+        if (metrics != null) {
+            metrics.onAppend(1, added, blockedNanos);
+        }
+        if (fullBatches != null) {
+            for (WriteBatch fullBatch : fullBatches) {
+                submitBatch(fullBatch);
+            }
+        }
+    }
+
+    /**
+     * 时间戳列的值转换为数据库精度的时间戳，同一时间点用Date、日期字符串和数字写入时也能合并，数字视为数据库精度
+     * <p>
+     * 微秒和纳秒精度的数据库中日期字符串可能带有毫秒以下的部分，不转换，只和相同的字符串合并
+     *
+     * @return 没有时间戳时返回null
+     */
+    private Object coalesceKeyValue(String databaseName, Map<String, ?> fields) {
+        Object value = fields.get(config.coalesceColumn);
+        if (value == null) {
+            for (Map.Entry<String, ?> entry : fields.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(config.coalesceColumn)) {
+                    value = entry.getValue();
+                    break;
+                }
+            }
+        }
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        Long multiplier = coalesceTimestampMultiplier(databaseName);
+        if (multiplier == null || (multiplier > 1 && !(value instanceof Date))) {
+            return value;
+        }
+        Date date = value instanceof Date ? (Date) value : Convert.toDate(value);
+        if (date == null) {
+            return value;
+        }
+        return date.getTime() * multiplier;
+    }
+
+    /**
+     * 设置了时间戳精度时使用设置的精度，否则查询数据库的精度
+     *
+     * @return 查询出错时返回null，这一行按照原始值合并
+     */
+    private Long coalesceTimestampMultiplier(String databaseName) {
+        if (config.timestampMultiplier != null) {
+            return config.timestampMultiplier;
+        }
+        try {
+            return databaseTimestampMultiplier(databaseName);
+        } catch (RuntimeException e) {
+            log.warn("查询数据库时间戳精度出错，按照原始值合并: {} {}", databaseName, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 取出分片中的所有数据，待合并数据先编码到缓冲区，调用方需持有分片锁
+     *
+     * @return 需要提交的批次，没有数据时为空
+     */
+    private List<WriteBatch> detachAll(SqlShard shard) {
+        List<WriteBatch> batches = new ArrayList<>(1);
+        if (!shard.coalesced.isEmpty()) {
+            for (CoalescedRow row : shard.coalesced.values()) {
+                WriteBatch fullBatch;
+                if (config.writeMode == WriteMode.STMT) {
+                    StmtRow stmtRow = new StmtRow(row.databaseName, row.superTableName, row.tableName, row.fields, row.tags);
+                    stmtRow.future = row.future();
+                    fullBatch = addStmtToShard(shard, stmtRow);
+                } else {
+                    fullBatch = encodeToShard(shard, row.databaseName, row.superTableName, row.tableName, row.fields, row.tags,
+                            row.future());
+                }
+                if (fullBatch != null) {
+                    batches.add(fullBatch);
+                }
+            }
+            shard.coalesced.clear();
+            shard.coalescedLength = 0;
+        }
+        if (shard.batch.length() > 0) {
+            batches.add(shard.detach());
+        }
+        return batches;
+    }
+
+    /**
+     * 提交停留时间超过lingerMillis的缓冲区
+     */
+    private void flushExpiredShards() {
+        try {
+            long now = System.currentTimeMillis();
+            for (SqlShard shard : config.shards) {
+                List<WriteBatch> batches;
+                synchronized (shard) {
+                    if ((shard.batch.length() == 0 && shard.coalesced.isEmpty()) || now - shard.firstAppendMillis < config.lingerMillis) {
+                        continue;
+                    }
+                    batches = detachAll(shard);
+                }
+                for (WriteBatch batch : batches) {
+                    submitBatch(batch);
+                }
+            }
+        } catch (Exception e) {
+            log.error("定时刷写缓冲区出错: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 提交一个写满的批次，排队批次达到缓冲区数量时阻塞
+     */
+    private void submitBatch(WriteBatch batch) {
+        if (config.flushThreads == 0) {
+            executeSpooledBatch(batch);
+            return;
+        }
+        if (!config.pendingBatches.tryAcquire()) {
+            if (config.spool != null && spillBatch(batch)) {
+                return;
+            }
+            long waitStart = config.metrics == null ? 0 : System.nanoTime();
+            config.pendingBatches.acquireUninterruptibly();
+            if (config.metrics != null) {
+                config.metrics.onBackpressure(System.nanoTime() - waitStart);
+            }
+        }
+        submitTask(() -> executeSpooledBatch(batch));
+    }
+
+    /**
+     * 第一次提交刷写任务时创建刷写线程池
+     *
+     * @throws RejectedExecutionException 已经关闭
+     */
+    private ExecutorService flushExecutor() {
+        ExecutorService executor = config.flushExecutor;
+        if (executor != null) {
+            return executor;
+        }
+        synchronized (config.executorLock) {
+            if (config.executorsClosed) {
+                throw new RejectedExecutionException("已经关闭");
+            }
+            if (config.flushExecutor == null) {
+                ThreadFactory threadFactory = ThreadUtil.newNamedThreadFactory("TDengineUtil-flush-", true);
+                if (config.pinnedConnections) {
+                    ThreadFactory namedFactory = threadFactory;
+                    threadFactory = runnable -> namedFactory.newThread(() -> runPinnedFlushThread(runnable));
+                }
+                config.flushExecutor = new ThreadPoolExecutor(config.flushThreads, config.flushThreads, 0L, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(), threadFactory);
+            }
+            return config.flushExecutor;
+        }
+    }
+
+    /**
+     * 异步方法使用的线程池，没有指定时第一次使用时创建
+     *
+     * @throws RejectedExecutionException 已经关闭
+     */
+    private Executor asyncExecutor() {
+        Executor executor = config.asyncExecutor;
+        if (executor != null) {
+            return executor;
+        }
+        synchronized (config.executorLock) {
+            if (config.executorsClosed) {
+                throw new RejectedExecutionException("已经关闭");
+            }
+            if (config.asyncExecutor == null) {
+                if (config.virtualThreads) {
+                    try {
+                        // JDK21及以上版本，反射调用，保持JDK8编译
+                        config.ownedAsyncExecutor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                        log.info("异步任务使用虚拟线程");
+                    } catch (Exception e) {
+                        log.warn("当前JDK不支持虚拟线程，使用普通线程池: {}", e.toString());
+                    }
+                }
+                if (config.ownedAsyncExecutor == null) {
+                    int threads = Math.max(Runtime.getRuntime().availableProcessors() * 2, 8);
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<>(), ThreadUtil.newNamedThreadFactory("TDengineUtil-async-", true));
+                    pool.allowCoreThreadTimeOut(true);
+                    config.ownedAsyncExecutor = pool;
+                }
+                config.asyncExecutor = config.ownedAsyncExecutor;
+            }
+            return config.asyncExecutor;
+        }
+    }
+
+    /**
+     * 提交刷写任务，调用方已经获得了排队许可
+     */
+    private void submitTask(Runnable task) {
+        synchronized (config.pendingLock) {
+            config.pendingCount++;
+        }
+        try {
+            flushExecutor().execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    finishBatch();
+                }
+                drainSpool(false);
+            });
+        } catch (RuntimeException e) {
+            finishBatch();
+            throw e;
+        }
+    }
+
+    /**
+     * 发送前先写入本地缓存文件，发送结束后删除，发送出错时文件加入重放队列
+     * <p>
+     * 可重试的错误重试用尽时不交给死信处理器，文件保留等待重放，并暂停重放一段时间
+     */
+    private void executeSpooledBatch(WriteBatch batch) {
+        long segment = -1;
+        if (config.spool != null) {
+            try {
+                segment = config.spool.write(spoolGroups(batch), false);
+            } catch (IOException e) {
+                log.error("写入本地缓存文件出错: {}", e.getMessage());
+            }
+        }
+        batch.spooled = segment >= 0;
+        boolean executed = false;
+        try {
+            executeInsertBatch(batch);
+            executed = true;
+        } catch (SpoolRetryException e) {
+            log.warn("写入出错，重试次数用尽: {}", e.getMessage());
+            if (batch.hasFutures()) {
+                // 先关联回调，finally中再加入重放队列
+                config.spool.futures.put(segment, spoolFutures(batch));
+            }
+            config.spool.pause(config.maxRetryBackoffMillis);
+        } finally {
+            if (segment >= 0) {
+                if (executed) {
+                    config.spool.delete(segment);
+                } else {
+                    log.warn("写入出错，本地缓存文件等待重放: {}", segment);
+                    config.spool.spilled.add(segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * 排队批次已满时，把批次写入本地缓存文件，释放内存
+     *
+     * @return 超出本地缓存大小或者写入文件失败时返回false
+     */
+    private boolean spillBatch(WriteBatch batch) {
+        if (config.spool.bytes.get() >= config.spool.maxBytes) {
+            return false;
+        }
+        try {
+            CompletableFuture<Void>[] futures = batch.hasFutures() ? spoolFutures(batch) : null;
+            long segment = config.spool.write(spoolGroups(batch), futures == null);
+            if (futures != null) {
+                // 先关联回调再加入重放队列，避免重放时还没有关联
+                config.spool.futures.put(segment, futures);
+                config.spool.spilled.add(segment);
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("写入本地缓存文件出错: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Void>[] spoolFutures(WriteBatch batch) {
+        if (batch instanceof SqlBatch) {
+            return ((SqlBatch) batch).futures();
+        }
+        List<StmtRow> rows = ((StmtBatch) batch).rows;
+        CompletableFuture<Void>[] futures = new CompletableFuture[rows.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = rows.get(i).future;
+        }
+        return futures;
+    }
+
+    /**
+     * 参数绑定写入的批次转换为sql，每行一个分组
+     */
+    private List<SqlGroup> spoolGroups(WriteBatch batch) {
+        if (batch instanceof SqlBatch) {
+            return ((SqlBatch) batch).groups;
+        }
+        List<SqlGroup> groups = new ArrayList<>();
+        for (StmtRow row : ((StmtBatch) batch).rows) {
+            SqlGroup group = new SqlGroup(stmtRowSql(row));
+            group.addRow("", null);
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * 重放本地缓存文件，有空闲的排队许可时提交给刷写线程
+     *
+     * @param wait 是否等待排队许可，否则没有空闲许可时直接返回
+     */
+    private void drainSpool(boolean wait) {
+        Spool spool = config.spool;
+        if (spool == null) {
+            return;
+        }
+        while (!spool.spilled.isEmpty() && !spool.paused()) {
+            if (config.flushThreads == 0) {
+                Long segment = spool.spilled.pollFirst();
+                if (segment != null) {
+                    replaySegment(segment);
+                }
+                continue;
+            }
+            if (wait) {
+                config.pendingBatches.acquireUninterruptibly();
+            } else if (!config.pendingBatches.tryAcquire()) {
+                return;
+            }
+            Long segment = spool.spilled.pollFirst();
+            if (segment == null) {
+                config.pendingBatches.release();
+                return;
+            }
+            try {
+                submitTask(() -> replaySegment(segment));
+            } catch (RuntimeException e) {
+                // 线程池已关闭，文件保留到下次启动时重放
+                log.warn("重放本地缓存文件出错: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * 重放一个本地缓存文件，可重试的错误重试用尽时文件放回重放队列并暂停重放，其他错误时隔离文件不再重放
+     */
+    private void replaySegment(long segment) {
+        SqlBatch batch;
+        CompletableFuture<Void>[] futures = config.spool.futures.remove(segment);
+        try {
+            batch = config.spool.read(segment);
+        } catch (IOException e) {
+            log.error("读取本地缓存文件出错: {} {}", segment, e.getMessage());
+            config.spool.quarantine(segment);
+            if (futures != null) {
+                for (CompletableFuture<Void> future : futures) {
+                    if (future != null) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            }
+            return;
+        }
+        if (futures != null) {
+            batch.attachFutures(futures);
+        }
+        batch.spooled = true;
+        boolean executed = false;
+        boolean requeue = false;
+        try {
+            executeInsertBatch(batch);
+            executed = true;
+        } catch (SpoolRetryException e) {
+            // TDengine仍然不可用，文件放回重放队列，暂停重放，等待下一次写入或者await时再重放
+            log.warn("重放本地缓存文件出错，重试次数用尽，稍后重放: {} {}", segment, e.getMessage());
+            requeue = true;
+            if (futures != null) {
+                config.spool.futures.put(segment, futures);
+            }
+            config.spool.pause(config.maxRetryBackoffMillis);
+            config.spool.spilled.add(segment);
+        } finally {
+            if (executed) {
+                config.spool.delete(segment);
+            } else if (!requeue) {
+                // 重放仍然出错时不再放回重放队列，避免反复重放同一个文件
+                log.error("重放本地缓存文件出错，不再重放: {}", segment);
+                config.spool.quarantine(segment);
+            }
+        }
+    }
+
+    private void finishBatch() {
+        config.pendingBatches.release();
+        synchronized (config.pendingLock) {
+            config.pendingCount--;
+            config.pendingLock.notifyAll();
+        }
+    }
+
+    private void executeInsertBatch(WriteBatch batch) {
+        long start = System.nanoTime();
+        try {
+            if (batch instanceof StmtBatch) {
+                executeStmtBatch((StmtBatch) batch);
+            } else {
+                SqlBatch sqlBatch = (SqlBatch) batch;
+                executeInsertRows(sqlBatch, 0, sqlBatch.rowCount);
+            }
+        } catch (SpoolRetryException e) {
+            // 文件保留等待重放，重放完成后再通知写入结果
+            throw e;
+        } catch (RuntimeException e) {
+            completeRows(batch, e);
+            throw e;
+        }
+        completeRows(batch, null);
+        long latencyNanos = System.nanoTime() - start;
+        if (config.adaptiveSqlLength != null) {
+            config.adaptiveSqlLength.onFlush(batch.length(), latencyNanos);
+        }
+        if (config.metrics != null) {
+            config.metrics.onFlush(batch.size(), batch.length(), latencyNanos);
+        }
+    }
+
+    /**
+     * 在异步线程池中通知每行的写入结果，回调不会占用刷写线程；异步线程池拒绝时使用公共的 ForkJoinPool
+     */
+    private void completeRows(WriteBatch batch, Throwable cause) {
+        if (!batch.hasFutures()) {
+            return;
+        }
+        try {
+            asyncExecutor().execute(() -> batch.completeRows(cause));
+        } catch (RejectedExecutionException e) {
+            CompletableFuture.runAsync(() -> batch.completeRows(cause), ForkJoinPool.commonPool());
+        }
+    }
+
+    /**
+     * 写入 [fromRow, toRow) 行，不可重试的异常会二分拆分批次，定位出有问题的行交给死信处理器
+     */
+    private void executeInsertRows(SqlBatch batch, int fromRow, int toRow) {
+        String sql = batch.sql(config.insertSqlPre, fromRow, toRow);
+        Throwable failure = executeWithRetry(() -> {
+            try {
+                executeUpdate(sql);
+            } catch (SQLException e) {
+                if (config.adaptiveSqlLength != null) {
+                    config.adaptiveSqlLength.onError(e, sql.length());
+                }
+                throw e;
+            }
+        });
+        if (failure == null) {
+            if (config.knownTables != null) {
+                batch.rememberTables(fromRow, toRow, config.knownTables);
+            }
+            return;
+        }
+        if (config.knownTables != null && isTableNotExist(failure)
+                && batch.restoreFullHeaders(fromRow, toRow, config.knownTables)) {
+            // 子表被删除，换回 USING ... TAGS 自动建表
+            log.warn("子表不存在，使用完整头部重新写入: {}", failure.getMessage());
+            executeInsertRows(batch, fromRow, toRow);
+            return;
+        }
+        if (toRow - fromRow > 1 && !config.retryableError.test(failure)) {
+            int midRow = (fromRow + toRow) >>> 1;
+            executeInsertRows(batch, fromRow, midRow);
+            executeInsertRows(batch, midRow, toRow);
+            return;
+        }
+        if (batch.spooled && config.retryableError.test(failure)) {
+            throw new SpoolRetryException(failure);
+        }
+        batch.failRows(fromRow, toRow, failure);
+        handleDeadLetter(batch.rows(fromRow, toRow), failure);
+    }
+
+    /**
+     * 按照参数绑定方式写入批次，根据超级表结构分组后，每组使用一个预编译语句
+     */
+    private void executeStmtBatch(StmtBatch batch) {
+        StmtGroups groups = new StmtGroups();
+        for (StmtRow row : batch.rows) {
+            StableSchema[] schema = new StableSchema[1];
+            Throwable failure = executeWithRetry(() -> schema[0] = stableSchema(row.databaseName, row.superTableName));
+            if (failure != null) {
+                if (batch.spooled && config.retryableError.test(failure)) {
+                    throw new SpoolRetryException(failure);
+                }
+                row.failure = failure;
+                handleDeadLetter(Collections.singletonList(stmtRowSql(row)), failure);
+                continue;
+            }
+            try {
+                addStmtRow(groups, schema[0], row);
+            } catch (Exception e) {
+                log.error("参数绑定写入数据出错: {}", e.getMessage());
+                row.failure = e;
+                handleDeadLetter(Collections.singletonList(stmtRowSql(row)), e);
+            }
+        }
+        for (StmtGroup group : groups.groups) {
+            executeStmtRows(batch, group, 0, group.rows().length);
+        }
+    }
+
+    private void addStmtRow(StmtGroups groups, StableSchema schema, StmtRow row) {
+        List<StableColumn> tagColumns = new ArrayList<>();
+        List<StableColumn> fieldColumns = new ArrayList<>();
+        StringBuilder groupKey = new StringBuilder(row.databaseName).append('.').append(row.superTableName).append('|');
+        if (row.tags != null) {
+            for (Map.Entry<String, Object> entry : row.tags.entrySet()) {
+                StableColumn column = stableColumn(schema, row, entry.getKey());
+                entry.setValue(stmtValue(column, entry.getValue(), schema));
+                tagColumns.add(column);
+            }
+        }
+        for (Map.Entry<String, Object> entry : row.fields.entrySet()) {
+            StableColumn column = stableColumn(schema, row, entry.getKey());
+            entry.setValue(stmtValue(column, entry.getValue(), schema));
+            if (column.tag) {
+                tagColumns.add(column);
+            } else if (entry.getValue() != null) {
+                fieldColumns.add(column);
+            }
+        }
+        tagColumns.forEach(column -> groupKey.append(column.name).append(','));
+        groupKey.append('|');
+        fieldColumns.forEach(column -> groupKey.append(column.name).append(','));
+        String key = groupKey.toString();
+        groups.add(key, row, () -> new StmtGroup(key, row.databaseName, row.superTableName, schema,
+                tagColumns.toArray(new StableColumn[0]), fieldColumns.toArray(new StableColumn[0])));
+    }
+
+    private StableColumn stableColumn(StableSchema schema, StmtRow row, String name) {
+        StableColumn column = schema.columns.get(name.toLowerCase(Locale.ROOT));
+        if (column == null) {
+            throw new IllegalArgumentException(StrUtil.format("超级表 {}.{} 中不存在列 {}", row.databaseName, row.superTableName, name));
+        }
+        if (!column.supported) {
+            throw new IllegalArgumentException(StrUtil.format("参数绑定写入不支持的类型: {}.{} {} {}", row.databaseName,
+                    row.superTableName, column.name, column.type));
+        }
+        return column;
+    }
+
+    /**
+     * 在加入分组前按照列类型转换值，无法转换时抛出异常，这一行进入死信，不会写入NULL，也不会影响同批次的其他行
+     *
+     * @return 绑定时使用的值，时间戳为数据库精度的Long
+     */
+    private static Object stmtValue(StableColumn column, Object value, StableSchema schema) {
+        if (value == null) {
+            return null;
+        }
+        Object converted;
+        switch (column.type) {
+            case "TIMESTAMP":
+                converted = toTimestamp(value, schema);
+                break;
+            case "BOOL":
+                converted = toBoolean(value);
+                break;
+            case "TINYINT":
+                converted = toInteger(value, Byte.MIN_VALUE, Byte.MAX_VALUE, column);
+                converted = converted == null ? null : ((Long) converted).byteValue();
+                break;
+            case "SMALLINT":
+                converted = toInteger(value, Short.MIN_VALUE, Short.MAX_VALUE, column);
+                converted = converted == null ? null : ((Long) converted).shortValue();
+                break;
+            case "INT":
+                converted = toInteger(value, Integer.MIN_VALUE, Integer.MAX_VALUE, column);
+                converted = converted == null ? null : ((Long) converted).intValue();
+                break;
+            case "BIGINT":
+                converted = toInteger(value, Long.MIN_VALUE, Long.MAX_VALUE, column);
+                break;
+            case "FLOAT":
+                converted = Convert.toFloat(value, null);
+                break;
+            case "DOUBLE":
+                converted = Convert.toDouble(value, null);
+                break;
+            default:
+                converted = Convert.toStr(value);
+        }
+        if (converted == null) {
+            throw new IllegalArgumentException(StrUtil.format("无法转换为 {} 类型: {} = {}", column.type, column.name, value));
+        }
+        return converted;
+    }
+
+    /**
+     * hutool 的 Convert.toBool 会把无法识别的字符串转换为false，这里只接受明确的值
+     */
+    private static Boolean toBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue() != 0;
+        }
+        String str = StrUtil.trim(Convert.toStr(value));
+        if ("true".equalsIgnoreCase(str) || "1".equals(str)) {
+            return true;
+        }
+        if ("false".equalsIgnoreCase(str) || "0".equals(str)) {
+            return false;
+        }
+        return null;
+    }
+
+    private static Long toInteger(Object value, long min, long max, StableColumn column) {
+        Long l;
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            l = ((Number) value).longValue();
+        } else if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            l = d == Math.rint(d) && d >= Long.MIN_VALUE && d <= Long.MAX_VALUE ? (Long) (long) d : null;
+        } else {
+            l = Convert.toLong(value, null);
+        }
+        if (l != null && (l < min || l > max)) {
+            throw new IllegalArgumentException(StrUtil.format("超出 {} 类型范围: {} = {}", column.type, column.name, value));
+        }
+        return l;
+    }
+
+    /**
+     * 写入分组中 [fromRow, toRow) 行，不可重试的异常会二分拆分，定位出有问题的行交给死信处理器
+     */
+    private void executeStmtRows(StmtBatch batch, StmtGroup group, int fromRow, int toRow) {
+        Throwable failure = executeWithRetry(() -> bindAndExecute(group, fromRow, toRow));
+        if (failure == null) {
+            return;
+        }
+        if (toRow - fromRow > 1 && !config.retryableError.test(failure)) {
+            int midRow = (fromRow + toRow) >>> 1;
+            executeStmtRows(batch, group, fromRow, midRow);
+            executeStmtRows(batch, group, midRow, toRow);
+            return;
+        }
+        if (batch.spooled && config.retryableError.test(failure)) {
+            throw new SpoolRetryException(failure);
+        }
+        List<String> rows = new ArrayList<>(toRow - fromRow);
+        for (int i = fromRow; i < toRow; i++) {
+            group.rows()[i].failure = failure;
+            rows.add(stmtRowSql(group.rows()[i]));
+        }
+        handleDeadLetter(rows, failure);
+    }
+
+    private void bindAndExecute(StmtGroup group, int fromRow, int toRow) throws SQLException {
+        if (config.showSql) {
+            log.info("执行SQL: {} 共 {} 行数据", group.sql, toRow - fromRow);
+        }
+        if (usePinnedConnection()) {
+            executePinned(pinned -> {
+                try (PreparedStatement ps = pinned.connection.prepareStatement(group.sql)) {
+                    bindAndExecute(ps, group, fromRow, toRow);
+                }
+            });
+            return;
+        }
+        try (Connection conn = config.dataSource.getConnection(); PreparedStatement ps = conn.prepareStatement(group.sql)) {
+            bindAndExecute(ps, group, fromRow, toRow);
+        }
+    }
+
+    private void bindAndExecute(PreparedStatement ps, StmtGroup group, int fromRow, int toRow) throws SQLException {
+        StmtRow[] rows = group.rows();
+        TaosPrepareStatement stmt = ps.unwrap(TaosPrepareStatement.class);
+        int start = fromRow;
+        while (start < toRow) {
+            StmtRow first = rows[start];
+            int end = start + 1;
+            while (end < toRow && rows[end].tableName.equals(first.tableName)) {
+                end++;
+            }
+            stmt.setTableName("`" + group.databaseName + "`.`" + first.tableName + "`");
+            for (int i = 0; i < group.tagColumns.length; i++) {
+                StableColumn column = group.tagColumns[i];
+                Object value = stmtValue(first.tags != null ? first.tags : first.fields, column.name);
+                bindTag(stmt, i, column, value, group.schema);
+            }
+            for (int i = 0; i < group.fieldColumns.length; i++) {
+                bindColumn(stmt, i, group.fieldColumns[i], rows, start, end, group.schema);
+            }
+            stmt.columnDataAddBatch();
+            start = end;
+        }
+        stmt.columnDataExecuteBatch();
+    }
+
+    private static Object stmtValue(Map<String, Object> values, String name) {
+        Object value = values.get(name);
+        if (value == null) {
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(name)) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return value;
+    }
+
+    private void bindTag(TaosPrepareStatement stmt, int index, StableColumn column, Object value, StableSchema schema)
+            throws SQLException {
+        switch (column.type) {
+            case "TIMESTAMP":
+                if (value == null) {
+                    stmt.setTagNull(index, TSDBConstants.TSDB_DATA_TYPE_TIMESTAMP);
+                } else {
+                    stmt.setTagTimestamp(index, (Long) value);
+                }
+                break;
+            case "BOOL":
+                if (value == null) {
+                    stmt.setTagNull(index, TSDBConstants.TSDB_DATA_TYPE_BOOL);
+                } else {
+                    stmt.setTagBoolean(index, (Boolean) value);
+                }
+                break;
+            case "TINYINT":
+                if (value == null) {
+                    stmt.setTagNull(index, TSDBConstants.TSDB_DATA_TYPE_TINYINT);
+                } else {
+                    stmt.setTagByte(index, (Byte) value);
+                }
+                break;
+            case "SMALLINT":
+                if (value == null) {
+                    stmt.setTagNull(index, TSDBConstants.TSDB_DATA_TYPE_SMALLINT);
+                } else {
+                    stmt.setTagShort(index, (Short) value);
+                }
+                break;
+            case "INT":
+                if (value == null) {
+                    stmt.setTagNull(index, TSDBConstants.TSDB_DATA_TYPE_INT);
+                } else {
+                    stmt.setTagInt(index, (Integer) value);
+                }
+                break;
+            case "BIGINT":
+                if (value == null) {
+                    stmt.setTagNull(index, TSDBConstants.TSDB_DATA_TYPE_BIGINT);
+                } else {
+                    stmt.setTagLong(index, (Long) value);
+                }
+                break;
+            case "FLOAT":
+                if (value == null) {
+                    stmt.setTagNull(index, TSDBConstants.TSDB_DATA_TYPE_FLOAT);
+                } else {
+                    stmt.setTagFloat(index, (Float) value);
+                }
+                break;
+            case "DOUBLE":
+                if (value == null) {
+                    stmt.setTagNull(index, TSDBConstants.TSDB_DATA_TYPE_DOUBLE);
+                } else {
+                    stmt.setTagDouble(index, (Double) value);
+                }
+                break;
+            case "BINARY":
+            case "VARCHAR":
+                if (value == null) {
+                    stmt.setTagNull(index, TSDBConstants.TSDB_DATA_TYPE_BINARY);
+                } else {
+                    stmt.setTagString(index, (String) value);
+                }
+                break;
+            case "NCHAR":
+                if (value == null) {
+                    stmt.setTagNull(index, TSDBConstants.TSDB_DATA_TYPE_NCHAR);
+                } else {
+                    stmt.setTagNString(index, (String) value);
+                }
+                break;
+            case "JSON":
+                if (value == null) {
+                    stmt.setTagNull(index, TSDBConstants.TSDB_DATA_TYPE_JSON);
+                } else {
+                    stmt.setTagJson(index, (String) value);
+                }
+                break;
+            default:
+                throw new SQLFeatureNotSupportedException(StrUtil.format("参数绑定写入不支持的标签类型: {} {}", column.name, column.type));
+        }
+    }
+
+    private void bindColumn(TaosPrepareStatement stmt, int index, StableColumn column, StmtRow[] rows, int start, int end,
+                            StableSchema schema) throws SQLException {
+        int size = end - start;
+        switch (column.type) {
+            case "TIMESTAMP": {
+                ArrayList<Long> list = new ArrayList<>(size);
+                for (int i = start; i < end; i++) {
+                    list.add((Long) stmtValue(rows[i].fields, column.name));
+                }
+                stmt.setTimestamp(index, list);
+                break;
+            }
+            case "BOOL": {
+                ArrayList<Boolean> list = new ArrayList<>(size);
+                for (int i = start; i < end; i++) {
+                    list.add((Boolean) stmtValue(rows[i].fields, column.name));
+                }
+                stmt.setBoolean(index, list);
+                break;
+            }
+            case "TINYINT": {
+                ArrayList<Byte> list = new ArrayList<>(size);
+                for (int i = start; i < end; i++) {
+                    list.add((Byte) stmtValue(rows[i].fields, column.name));
+                }
+                stmt.setByte(index, list);
+                break;
+            }
+            case "SMALLINT": {
+                ArrayList<Short> list = new ArrayList<>(size);
+                for (int i = start; i < end; i++) {
+                    list.add((Short) stmtValue(rows[i].fields, column.name));
+                }
+                stmt.setShort(index, list);
+                break;
+            }
+            case "INT": {
+                ArrayList<Integer> list = new ArrayList<>(size);
+                for (int i = start; i < end; i++) {
+                    list.add((Integer) stmtValue(rows[i].fields, column.name));
+                }
+                stmt.setInt(index, list);
+                break;
+            }
+            case "BIGINT": {
+                ArrayList<Long> list = new ArrayList<>(size);
+                for (int i = start; i < end; i++) {
+                    list.add((Long) stmtValue(rows[i].fields, column.name));
+                }
+                stmt.setLong(index, list);
+                break;
+            }
+            case "FLOAT": {
+                ArrayList<Float> list = new ArrayList<>(size);
+                for (int i = start; i < end; i++) {
+                    list.add((Float) stmtValue(rows[i].fields, column.name));
+                }
+                stmt.setFloat(index, list);
+                break;
+            }
+            case "DOUBLE": {
+                ArrayList<Double> list = new ArrayList<>(size);
+                for (int i = start; i < end; i++) {
+                    list.add((Double) stmtValue(rows[i].fields, column.name));
+                }
+                stmt.setDouble(index, list);
+                break;
+            }
+            case "BINARY":
+            case "VARCHAR":
+            case "NCHAR": {
+                ArrayList<String> list = new ArrayList<>(size);
+                for (int i = start; i < end; i++) {
+                    list.add((String) stmtValue(rows[i].fields, column.name));
+                }
+                if ("NCHAR".equals(column.type)) {
+                    stmt.setNString(index, list, column.length);
+                } else {
+                    stmt.setString(index, list, column.length);
+                }
+                break;
+            }
+            default:
+                throw new SQLFeatureNotSupportedException(StrUtil.format("参数绑定写入不支持的列类型: {} {}", column.name, column.type));
+        }
+    }
+
+    /**
+     * 转换为数据库精度的时间戳，数字认为已经是数据库精度
+     */
+    private static long toTimestamp(Object value, StableSchema schema) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        Date date = value instanceof Date ? (Date) value : Convert.toDate(value);
+        if (date == null) {
+            throw new IllegalArgumentException("无法转换为时间戳: " + value);
+        }
+        return date.getTime() * schema.timestampMultiplier;
+    }
+
+    /**
+     * 获取超级表结构，结果会被缓存
+     */
+    private StableSchema stableSchema(String databaseName, String superTableName) {
+        String key = databaseName + "." + superTableName;
+        StableSchema schema = config.stableSchemas.get(key);
+        if (schema != null) {
+            return schema;
+        }
+        schema = new StableSchema();
+        for (Map<String, Object> row : querySql(StrUtil.format("DESCRIBE `{}`.`{}`", databaseName, superTableName))) {
+            String name = Convert.toStr(row.get("field"));
+            String type = Convert.toStr(row.get("type")).toUpperCase(Locale.ROOT);
+            int length = Convert.toInt(row.get("length"));
+            boolean tag = "TAG".equalsIgnoreCase(StrUtil.trim(Convert.toStr(row.get("note"))));
+            StableColumn column = new StableColumn(name, type, length, tag);
+            if (!column.supported) {
+                log.warn("参数绑定写入不支持的类型，包含这一列的行会进入死信: {}.{} {} {}", databaseName, superTableName, name, type);
+            }
+            schema.columns.put(name.toLowerCase(Locale.ROOT), column);
+        }
+        schema.timestampMultiplier = databaseTimestampMultiplier(databaseName);
+        config.stableSchemas.put(key, schema);
+        return schema;
+    }
+
+    /**
+     * 查询数据库的时间戳精度，结果会被缓存
+     *
+     * @return 毫秒时间戳转换为数据库精度的倍数
+     */
+    long databaseTimestampMultiplier(String databaseName) {
+        Long multiplier = config.databaseTimestampMultipliers.get(databaseName);
+        if (multiplier != null) {
+            return multiplier;
+        }
+        multiplier = 1L;
+        for (Map<String, Object> row : querySql(StrUtil.format(
+                "SELECT `precision` FROM information_schema.ins_databases WHERE name = '{}'", databaseName))) {
+            String precision = Convert.toStr(row.get("precision"));
+            if ("us".equalsIgnoreCase(precision)) {
+                multiplier = 1000L;
+            } else if ("ns".equalsIgnoreCase(precision)) {
+                multiplier = 1000_000L;
+            }
+        }
+        config.databaseTimestampMultipliers.put(databaseName, multiplier);
+        return multiplier;
+    }
+
+    /**
+     * 参数绑定写入的行数据转换为sql语句，用于死信处理
+     */
+    private String stmtRowSql(StmtRow row) {
+        if (row.tags != null) {
+            return genSql(row.databaseName, row.superTableName, row.tableName, row.fields, row.tags);
+        }
+        return genSqlv33(row.databaseName, row.superTableName, row.tableName, row.fields);
+    }
+
+    @FunctionalInterface
+    private interface SqlCall {
+        void call() throws Exception;
+    }
+
+    /**
+     * 执行sql，可重试的异常按照退避时间重试
+     *
+     * @return 写入成功返回null，否则返回最后一次的异常
+     */
+    private Throwable executeWithRetry(SqlCall call) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                call.call();
+                return null;
+            } catch (Exception e) {
+                if (!config.retryableError.test(e)) {
+                    log.error("写入数据出错，不可重试: {}", e.getMessage());
+                    return e;
+                }
+                if (config.maxRetries >= 0 && attempt >= config.maxRetries) {
+                    log.error("写入数据出错，已重试 {} 次: {}", attempt, e.getMessage());
+                    return e;
+                }
+                if (config.metrics != null) {
+                    config.metrics.onRetry(e);
+                }
+                long backoff = retryBackoff(attempt);
+                log.warn("写入数据出错，{}ms 后进行第 {} 次重试: {}", backoff, attempt + 1, e.getMessage());
+                ThreadUtil.sleep(backoff);
+            }
+        }
+    }
+
+    private long retryBackoff(int attempt) {
+        long backoff = config.retryBackoffMillis << Math.min(attempt, 30);
+        if (backoff <= 0 || backoff > config.maxRetryBackoffMillis) {
+            backoff = config.maxRetryBackoffMillis;
+        }
+        long half = backoff / 2;
+        return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+    }
+
+    void handleDeadLetter(List<String> rows, Throwable cause) {
+        if (config.metrics != null) {
+            config.metrics.onDeadLetter(rows.size(), cause);
+        }
+        if (config.deadLetterHandler == null) {
+            for (String row : rows) {
+                log.error("写入失败的数据: {}{}", config.insertSqlPre, row);
+            }
+            return;
+        }
+        try {
+            config.deadLetterHandler.handle(config.insertSqlPre, rows, cause);
+        } catch (Exception e) {
+            log.error("死信处理出错: {} 共 {} 行数据", e.getMessage(), rows.size());
+        }
+    }
+
+    private static boolean isTableNotExist(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            String message = t.getMessage();
+            if (message != null && StrUtil.containsAnyIgnoreCase(message, "table does not exist", "table not exist")) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 默认的可重试异常判断，语法错误、数据错误等重试也不会成功的异常不重试
+     * <p>
+     * 依次按照异常类型、SQLState、TDengine错误码判断，都无法判断时再按照异常信息判断
+     */
+    private static boolean isRetryableError(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            // 本地的类型转换、参数绑定错误重试也不会成功
+            if ((t instanceof SQLNonTransientException && !(t instanceof SQLNonTransientConnectionException))
+                    || t instanceof IllegalArgumentException || t instanceof ClassCastException) {
+                return false;
+            }
+            if (t instanceof SQLException) {
+                SQLException sqlException = (SQLException) t;
+                String sqlState = sqlException.getSQLState();
+                if (sqlState != null && sqlState.startsWith("08")) {
+                    // 连接异常
+                    return true;
+                }
+                if (sqlState != null && (sqlState.startsWith("22") || sqlState.startsWith("23") || sqlState.startsWith("42"))) {
+                    // 数据异常、约束冲突、语法错误或者对象不存在
+                    return false;
+                }
+                if (isPermanentErrorCode(sqlException.getErrorCode())) {
+                    return false;
+                }
+            }
+            // 只匹配数据和语句相关的 invalid，"invalid session"、"Invalid connection" 等连接错误需要重试
+            String message = t.getMessage();
+            if (message != null && StrUtil.containsAnyIgnoreCase(message, "syntax error", "too long", "invalid column",
+                    "invalid tag", "invalid sql", "invalid timestamp", "invalid value", "invalid data", "not exist",
+                    "out of range", "duplicated", "mismatch", "tags number not matched")) {
+                return false;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * TDengine 重试也不会成功的错误码，服务端错误码的最高位可能被设置，只比较低16位
+     * <p>
+     * 0x2600~0x26FF sql解析错误(语法错误、列或表不存在、值超出范围等)，0x0388 数据库不存在，0x060B 时间戳超出允许的范围
+     */
+    private static boolean isPermanentErrorCode(int errorCode) {
+        int code = errorCode & 0xFFFF;
+        return (code >= 0x2600 && code <= 0x26FF) || code == 0x0388 || code == 0x060B;
+    }
+
+    /**
+     * 等待所有任务完成
+     * <p>
+     * 将所有缓冲区中的数据提交刷写，并等待所有批次写入完毕
+     */
+    public void await() {
+        for (SqlShard shard : config.shards) {
+            List<WriteBatch> batches;
+            synchronized (shard) {
+                batches = detachAll(shard);
+            }
+            for (WriteBatch batch : batches) {
+                submitBatch(batch);
+            }
+        }
+        do {
+            drainSpool(true);
+            synchronized (config.pendingLock) {
+                while (config.pendingCount > 0) {
+                    try {
+                        config.pendingLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        } while (config.spool != null && !config.spool.spilled.isEmpty() && !config.spool.paused());
+    }
+
+    /**
+     * 异步插入一条记录，需要在合适的位置调用await方法，避免还未写入完毕就结束程序
+     * （TDengine3.3版本开始使用这种写法）
+     *
+     * @param databaseName   数据库名称
+     * @param superTableName 超级表名称
+     * @param tableName      表名
+     * @param fieldsAndTags  行数据，包括列和标签数据(key：列名或者标签名，value：列值或者标签值)
+     */
+    public void appendInsert(String databaseName, String superTableName, String tableName, Map<String, ?> fieldsAndTags) {
+        if (config.writeMode == WriteMode.STMT) {
+            appendStmt(shardOf(databaseName, tableName), new StmtRow(databaseName, superTableName, tableName, fieldsAndTags, null));
+            return;
+        }
+        appendRow(shardOf(databaseName, tableName), databaseName, superTableName, tableName, fieldsAndTags, null, null);
+    }
+
+    String genSqlv33(String databaseName, String superTableName, String tableName, Map<String, ?> fieldsAndTags) {
+        StringBuilder sql = new StringBuilder(128);
+        encodeRow(sql, databaseName, superTableName, tableName, fieldsAndTags, null);
+        return sql.toString();
+    }
+
+    /**
+     * 异步插入一条记录，需要在合适的位置调用await方法，避免还未写入完毕就结束程序
+     * （TDengine3.3版本以前使用这种写法）
+     *
+     * @param databaseName   数据库名称
+     * @param superTableName 超级表名称
+     * @param tableName      表名
+     * @param fields         列信息(key:列名称，value：列值)
+     * @param tags           标签信息(key：标签名称，value：标签值)
+     */
+    public void appendInsert(String databaseName, String superTableName, String tableName, Map<String, ?> fields,
+                             Map<String, ?> tags) {
+        if (config.writeMode == WriteMode.STMT) {
+            appendStmt(shardOf(databaseName, tableName), new StmtRow(databaseName, superTableName, tableName, fields, tags));
+            return;
+        }
+        appendRow(shardOf(databaseName, tableName), databaseName, superTableName, tableName, fields, tags, null);
+    }
+
+    /**
+     * 异步插入一条记录，返回的结果在这一行所在的批次写入完成后完成，写入失败时异常完成
+     * （TDengine3.3版本开始使用这种写法）
+     * <p>
+     * 结果在异步线程池中通知；批次没有写满或者没有到达 lingerMillis 之前不会写入
+     *
+     * @param databaseName   数据库名称
+     * @param superTableName 超级表名称
+     * @param tableName      表名
+     * @param fieldsAndTags  行数据，包括列和标签数据(key：列名或者标签名，value：列值或者标签值)
+     * @return 写入结果
+     */
+    public CompletableFuture<Void> appendInsertAsync(String databaseName, String superTableName, String tableName,
+                                                     Map<String, ?> fieldsAndTags) {
+        return appendInsertAsync(databaseName, superTableName, tableName, fieldsAndTags, null);
+    }
+
+    /**
+     * 异步插入一条记录，返回的结果在这一行所在的批次写入完成后完成，写入失败时异常完成
+     * （TDengine3.3版本以前使用这种写法）
+     *
+     * @param databaseName   数据库名称
+     * @param superTableName 超级表名称
+     * @param tableName      表名
+     * @param fields         列信息(key:列名称，value：列值)
+     * @param tags           标签信息(key：标签名称，value：标签值)
+     * @return 写入结果
+     */
+    public CompletableFuture<Void> appendInsertAsync(String databaseName, String superTableName, String tableName,
+                                                     Map<String, ?> fields, Map<String, ?> tags) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            if (config.writeMode == WriteMode.STMT) {
+                StmtRow row = new StmtRow(databaseName, superTableName, tableName, fields, tags);
+                row.future = future;
+                appendStmt(shardOf(databaseName, tableName), row);
+            } else {
+                appendRow(shardOf(databaseName, tableName), databaseName, superTableName, tableName, fields, tags, future);
+            }
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 在异步线程池中插入一条记录 （TDengine3.3版本开始使用这种写法）
+     *
+     * @param databaseName   数据库名称
+     * @param superTableName 超级表名称
+     * @param tableName      表名
+     * @param fieldsAndTags  行数据，包括列和标签数据(key：列名或者标签名，value：列值或者标签值)
+     * @return 写入结果
+     */
+    public CompletableFuture<Void> insertAsync(String databaseName, String superTableName, String tableName,
+                                               Map<String, ?> fieldsAndTags) {
+        return CompletableFuture.runAsync(() -> insert(databaseName, superTableName, tableName, fieldsAndTags), asyncExecutor());
+    }
+
+    /**
+     * 在异步线程池中插入一条记录 （TDengine3.3版本以前使用这种写法）
+     *
+     * @param databaseName   数据库名称
+     * @param superTableName 超级表名称
+     * @param tableName      表名
+     * @param fields         列信息(key:列名称，value：列值)
+     * @param tags           标签信息(key：标签名称，value：标签值)
+     * @return 写入结果
+     */
+    public CompletableFuture<Void> insertAsync(String databaseName, String superTableName, String tableName,
+                                               Map<String, ?> fields, Map<String, ?> tags) {
+        return CompletableFuture.runAsync(() -> insert(databaseName, superTableName, tableName, fields, tags), asyncExecutor());
+    }
+
+    /**
+     * 在异步线程池中执行sql语句
+     *
+     * @param sql sql语句
+     * @return 执行结果
+     */
+    public CompletableFuture<Void> executeSqlAsync(String sql) {
+        return CompletableFuture.runAsync(() -> executeSql(sql), asyncExecutor());
+    }
+
+    /**
+     * 在异步线程池中查询sql语句
+     *
+     * @param sql 查询sql
+     * @return 查询结果
+     */
+    public CompletableFuture<List<Map<String, Object>>> querySqlAsync(String sql) {
+        return CompletableFuture.supplyAsync(() -> querySql(sql), asyncExecutor());
+    }
+
+    /**
+     * 在异步线程池中查询sql语句，逐行回调
+     *
+     * @param sql        查询sql
+     * @param rowHandler 行处理器，在异步线程中调用
+     * @return 处理的行数
+     */
+    public CompletableFuture<Long> querySqlAsync(String sql, RowHandler rowHandler) {
+        return CompletableFuture.supplyAsync(() -> querySql(sql, rowHandler), asyncExecutor());
+    }
+
+    /**
+     * 异步插入一个实体，实体类需要 {@link Table} 注解和 {@link TableName} 字段，需要在合适的位置调用await方法
+     * <p>
+     * sql写入方式时直接从字段编码到缓冲区，不经过Map
+     *
+     * @param entity 实体
+     */
+    public void appendInsert(Object entity) {
+        appendEntity(entity, null);
+    }
+
+    /**
+     * 异步插入一个实体，返回的结果在这一行所在的批次写入完成后完成，写入失败时异常完成
+     *
+     * @param entity 实体
+     * @return 写入结果
+     */
+    public CompletableFuture<Void> appendInsertAsync(Object entity) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            appendEntity(entity, future);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 插入一个实体
+     *
+     * @param entity 实体
+     */
+    public void insert(Object entity) {
+        EntityMeta meta = EntityMeta.of(entity.getClass());
+        meta.checkWritable();
+        StringBuilder sql = new StringBuilder(256).append(config.insertSqlPre);
+        String tableName = meta.tableName(entity);
+        appendEntityHeader(sql, meta, tableName, entity);
+        appendEntityValues(sql, meta, tableName, entity);
+        executeSql(sql.toString());
+    }
+
+    private void appendEntity(Object entity, CompletableFuture<Void> future) {
+        EntityMeta meta = EntityMeta.of(entity.getClass());
+        meta.checkWritable();
+        String tableName = meta.tableName(entity);
+        if (config.writeMode == WriteMode.STMT || config.coalesceColumn != null) {
+            // 参数绑定和合并需要按列名处理，转换为Map
+            Map<String, Object> fields = new LinkedHashMap<>();
+            Map<String, Object> tags = meta.usingTags ? new LinkedHashMap<>() : fields;
+            for (EntityProperty property : meta.fieldProperties) {
+                fields.put(property.column, property.get(entity));
+            }
+            for (EntityProperty property : meta.tagProperties) {
+                tags.put(property.column, property.get(entity));
+            }
+            if (future == null) {
+                if (meta.usingTags) {
+                    appendInsert(meta.databaseName, meta.superTableName, tableName, fields, tags);
+                } else {
+                    appendInsert(meta.databaseName, meta.superTableName, tableName, fields);
+                }
+            } else {
+                appendInsertAsync(meta.databaseName, meta.superTableName, tableName, fields, meta.usingTags ? tags : null)
+                        .whenComplete((v, e) -> {
+                            if (e == null) {
+                                future.complete(null);
+                            } else {
+                                future.completeExceptionally(e);
+                            }
+                        });
+            }
+            return;
+        }
+        SqlShard shard = shardOf(meta.databaseName, tableName);
+        WriteBatch fullBatch;
+        MetricsListener metrics = config.metrics;
+        long lockStart = metrics == null ? 0 : System.nanoTime();
+        int added;
+        long blockedNanos;
+        synchronized (shard) {
+            blockedNanos = metrics == null ? 0 : System.nanoTime() - lockStart;
+            int before = shard.batch.length();
+            StringBuilder values = shard.valuesScratch;
+            values.setLength(0);
+            appendEntityValues(values, meta, tableName, entity);
+            CharSequence header = meta.template.head;
+            if (meta.usingTags) {
+                shard.tagsScratch.setLength(0);
+                appendEntityValues(shard.tagsScratch, meta.tagProperties, entity);
+                header = legacyHeader(shard, meta.template, meta.databaseName, tableName);
+            }
+            fullBatch = addEncodedRow(shard, meta.template, tableName, header, values, future);
+            added = shard.batch.length() - (fullBatch == null ? before : 0);
+        }
+        if (metrics != null) {
+            metrics.onAppend(1, added, blockedNanos);
+        }
+        if (fullBatch != null) {
+            submitBatch(fullBatch);
+        }
+    }
+
+    private void appendEntityHeader(StringBuilder sql, EntityMeta meta, String tableName, Object entity) {
+        if (!meta.usingTags) {
+            sql.append(meta.template.head);
+            return;
+        }
+        sql.append(" `").append(meta.databaseName).append("`.`").append(tableName).append(meta.template.head);
+        appendEntityValues(sql, meta.tagProperties, entity);
+        sql.append(meta.template.fieldsHead);
+    }
+
+    private void appendEntityValues(StringBuilder sql, EntityMeta meta, String tableName, Object entity) {
+        sql.append('(');
+        if (!meta.usingTags) {
+            appendString(sql, tableName);
+            sql.append(',');
+            appendEntityValues(sql, meta.fieldProperties, entity);
+            if (meta.tagProperties.length > 0) {
+                sql.append(',');
+                appendEntityValues(sql, meta.tagProperties, entity);
+            }
+        } else {
+            appendEntityValues(sql, meta.fieldProperties, entity);
+        }
+        sql.append(") ");
+    }
+
+    /**
+     * 按字段类型编码，基本类型不装箱
+     */
+    private void appendEntityValues(StringBuilder sql, EntityProperty[] properties, Object entity) {
+        for (int i = 0; i < properties.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            EntityProperty property = properties[i];
+            switch (property.kind) {
+                case LONG:
+                case INT:
+                    sql.append(property.longGetter.applyAsLong(entity));
+                    break;
+                case DOUBLE:
+                case FLOAT:
+                    double d = property.doubleGetter.applyAsDouble(entity);
+                    if (Double.isNaN(d) || Double.isInfinite(d)) {
+                        appendString(sql, property.kind == EntityKind.FLOAT ? Float.toString((float) d) : Double.toString(d));
+                    } else if (property.kind == EntityKind.FLOAT) {
+                        sql.append((float) d);
+                    } else {
+                        sql.append(d);
+                    }
+                    break;
+                case BOOLEAN:
+                    sql.append(property.booleanGetter.test(entity));
+                    break;
+                default:
+                    appendValue(sql, property.getter.apply(entity));
+            }
+        }
+    }
+
+    /**
+     * 查询sql语句，按列名(不区分大小写)映射为实体，tbname映射到 {@link TableName} 字段
+     * <p>
+     * 实体类需要有无参构造方法，不需要 {@link Table} 注解
+     *
+     * @param sql  查询sql
+     * @param type 实体类
+     * @param <T>  实体类型
+     * @return 查询结果
+     */
+    public <T> List<T> query(String sql, Class<T> type) {
+        List<T> rows = new ArrayList<>();
+        query(sql, type, rows::add);
+        return rows;
+    }
+
+    /**
+     * 查询sql语句，逐行映射为实体并回调，不在内存中保存结果
+     *
+     * @param sql      查询sql
+     * @param type     实体类
+     * @param consumer 实体处理器，抛出异常时停止查询
+     * @param <T>      实体类型
+     * @return 处理的行数
+     */
+    public <T> long query(String sql, Class<T> type, Consumer<T> consumer) {
+        if (config.showSql) {
+            log.info("查询SQL: {}", sql);
+        }
+        EntityMeta meta = EntityMeta.of(type);
+        long start = System.nanoTime();
+        long count = 0;
+        try (Connection conn = config.dataSource.getConnection();
+             Statement stmt = createQueryStatement(conn);
+             ResultSet resultSet = stmt.executeQuery(sql)) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            EntityProperty[] properties = new EntityProperty[metaData.getColumnCount()];
+            for (int i = 0; i < properties.length; i++) {
+                properties[i] = meta.property(metaData.getColumnLabel(i + 1));
+            }
+            while (resultSet.next()) {
+                T entity = type.cast(meta.newInstance());
+                for (int i = 0; i < properties.length; i++) {
+                    if (properties[i] != null) {
+                        properties[i].read(resultSet, i + 1, entity);
+                    }
+                }
+                consumer.accept(entity);
+                count++;
+            }
+            if (config.metrics != null) {
+                config.metrics.onQuery(count, System.nanoTime() - start, true);
+            }
+            return count;
+        } catch (Exception e) {
+            if (config.metrics != null) {
+                config.metrics.onQuery(count, System.nanoTime() - start, false);
+            }
+            log.error("查询sql语句出错: {} {}", e.getMessage(), sql);
+            throw new RuntimeException(e);
+        }
+    }
+
+    String genSql(String databaseName, String superTableName, String tableName, Map<String, ?> fields, Map<String, ?> tags) {
+        StringBuilder sql = new StringBuilder(128);
+        encodeRow(sql, databaseName, superTableName, tableName, fields, tags);
+        return sql.toString();
+    }
+
+    /**
+     * 将一行数据编码为sql片段(不包含 INSERT INTO)
+     *
+     * @param tags 为null时使用3.3版本写法，fields为列和标签数据
+     */
+    private void encodeRow(StringBuilder sql, String databaseName, String superTableName, String tableName,
+                           Map<String, ?> fields, Map<String, ?> tags) {
+        SqlTemplate template = sqlTemplate(databaseName, superTableName, fields, tags);
+        appendHeader(sql, template, databaseName, tableName, tags);
+        appendRowValues(sql, template, tableName, fields);
+    }
+
+    /**
+     * 编码头部，头部相同的行可以合并写入
+     */
+    private void appendHeader(StringBuilder sql, SqlTemplate template, String databaseName, String tableName, Map<String, ?> tags) {
+        if (tags == null) {
+            // TDengine3.3版本开始使用这种写法
+            // `databaseName`.`superTableName` (`tbname`,`fieldName1`,`tagName1` ,...) values
+            // tbname : 固定占位符，这个名称不能改变
+            sql.append(template.head);
+            return;
+        }
+        // TDengine3.3版本以前使用这种写法
+        // `databaseName`.`tableName` USING `databaseName`.`superTableName` (`tagName1`,...) TAGS (tagValue1,...) (`fieldName1`,...) VALUES
+        sql.append(" `").append(databaseName).append("`.`").append(tableName).append(template.head);
+        appendValues(sql, tags, false);
+        sql.append(template.fieldsHead);
+    }
+
+    /**
+     * 编码一行的值，3.3版本写法为 ('tableName',fieldValue1,tagValue1,...) ，3.3版本以前写法为 (fieldValue1,...)
+     */
+    private void appendRowValues(StringBuilder sql, SqlTemplate template, String tableName, Map<String, ?> fields) {
+        sql.append('(');
+        if (template.tagNames == null) {
+            appendString(sql, tableName);
+            appendValues(sql, fields, true);
+        } else {
+            appendValues(sql, fields, false);
+        }
+        sql.append(") ");
+    }
+
+    private void appendValues(StringBuilder sql, Map<String, ?> values, boolean leadingComma) {
+        boolean comma = leadingComma;
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            Object value = entry.getValue();
+            if (value == null) {
+                continue;
+            }
+            if (comma) {
+                sql.append(',');
+            }
+            comma = true;
+            appendValue(sql, value);
+        }
+    }
+
+    /**
+     * 按类型格式化值：数字和布尔值不加引号，设置了时间戳精度时日期转换为该精度的时间戳，其余转换为字符串并转义引号
+     */
+    private void appendValue(StringBuilder sql, Object value) {
+        if (value == null) {
+            sql.append("NULL");
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            sql.append(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                appendString(sql, value.toString());
+            } else if (value instanceof Float) {
+                sql.append((float) d);
+            } else {
+                sql.append(d);
+            }
+        } else if (value instanceof BigDecimal) {
+            sql.append(((BigDecimal) value).toPlainString());
+        } else if (value instanceof BigInteger) {
+            sql.append(value);
+        } else if (value instanceof Boolean) {
+            sql.append(((Boolean) value).booleanValue());
+        } else if (value instanceof Date) {
+            if (config.timestampMultiplier != null) {
+                sql.append(((Date) value).getTime() * config.timestampMultiplier);
+            } else {
+                appendString(sql, DateUtil.format((Date) value, DatePattern.NORM_DATETIME_MS_PATTERN));
+            }
+        } else {
+            appendString(sql, value instanceof CharSequence ? (CharSequence) value : Convert.toStr(value));
+        }
+    }
+
+    private static void appendString(StringBuilder sql, CharSequence value) {
+        sql.append('\'');
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '\'' || c == '\\') {
+                sql.append('\\');
+            }
+            sql.append(c);
+        }
+        sql.append('\'');
+    }
+
+    /**
+     * 获取缓存的列名模板，同一个 (数据库，超级表，列名集合) 只生成一次
+     */
+    private SqlTemplate sqlTemplate(String databaseName, String superTableName, Map<String, ?> fields, Map<String, ?> tags) {
+        SqlTemplateSet templateSet = config.sqlTemplates
+                .computeIfAbsent(databaseName, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(superTableName, key -> new SqlTemplateSet());
+        SqlTemplate[] templates = templateSet.templates;
+        for (SqlTemplate template : templates) {
+            if (template.matches(fields, tags)) {
+                return template;
+            }
+        }
+        SqlTemplate template = new SqlTemplate(databaseName, superTableName, fields, tags);
+        synchronized (templateSet) {
+            if (templateSet.templates.length < SqlTemplateSet.MAX_TEMPLATES) {
+                SqlTemplate[] newTemplates = Arrays.copyOf(templateSet.templates, templateSet.templates.length + 1);
+                newTemplates[templateSet.templates.length] = template;
+                templateSet.templates = newTemplates;
+            }
+        }
+        return template;
+    }
+
+    /**
+     * 插入一条记录 （TDengine3.3版本开始使用这种写法）
+     *
+     * @param databaseName   数据库名称
+     * @param superTableName 超级表名称
+     * @param tableName      表名
+     * @param fieldsAndTags  行数据，包括列和标签数据(key：列名或者标签名，value：列值或者标签值)
+     */
+    public void insert(String databaseName, String superTableName, String tableName, Map<String, ?> fieldsAndTags) {
+        String sql = genSqlv33(databaseName, superTableName, tableName, fieldsAndTags);
+        executeSql(config.insertSqlPre + sql);
+    }
+
+    /**
+     * 插入一条记录 （TDengine3.3版本以前使用这种写法）
+     *
+     * @param databaseName   数据库名称
+     * @param superTableName 超级表名称
+     * @param tableName      表名
+     * @param fields         列信息(key:列名称，value：列值)
+     * @param tags           标签信息(key：标签名称，value：标签值)
+     */
+    public void insert(String databaseName, String superTableName, String tableName, Map<String, ?> fields, Map<String, ?> tags) {
+        String sql = genSql(databaseName, superTableName, tableName, fields, tags);
+        executeSql(config.insertSqlPre + sql);
+    }
+
+    /**
+     * 执行更新sql语句
+     *
+     * @param sql sql语句
+     */
+    public void executeSql(String sql) {
+        try {
+            executeUpdate(sql);
+        } catch (Exception e) {
+            log.error("执行sql语句出错: {} {}", e.getMessage(), sql);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void executeUpdate(String sql) throws SQLException {
+        if (config.showSql) {
+            log.info("执行SQL: {}", sql);
+        }
+        if (usePinnedConnection()) {
+            executePinned(pinned -> pinned.statement().executeUpdate(sql));
+            return;
+        }
+        try (Connection conn = config.dataSource.getConnection(); Statement stmt = conn.createStatement();) {
+            stmt.executeUpdate(sql);
+        }
+    }
+
+    private boolean usePinnedConnection() {
+        return config.pinnedConnections && config.pinningThread.get() != null;
+    }
+
+    /**
+     * 刷写线程的执行入口，线程结束时归还固定连接
+     */
+    private void runPinnedFlushThread(Runnable runnable) {
+        config.pinningThread.set(Boolean.TRUE);
+        try {
+            runnable.run();
+        } finally {
+            PinnedConnection pinned = config.pinnedConnection.get();
+            if (pinned != null) {
+                releasePinnedConnection(pinned);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface PinnedCall {
+        void call(PinnedConnection pinned) throws SQLException;
+    }
+
+    /**
+     * 使用当前线程的固定连接执行，出错时如果连接已经断开，重新连接后再执行一次
+     * <p>
+     * 断开前的写入可能已经成功，重新执行时相同时间戳的数据会覆盖，不会重复
+     */
+    private void executePinned(PinnedCall call) throws SQLException {
+        PinnedConnection pinned = pinnedConnection();
+        try {
+            call.call(pinned);
+        } catch (SQLException e) {
+            if (pinned.isValid()) {
+                throw e;
+            }
+            log.warn("固定连接已断开，重新连接: {}", e.getMessage());
+            releasePinnedConnection(pinned);
+            pinned = pinnedConnection();
+            try {
+                call.call(pinned);
+            } catch (SQLException retryError) {
+                if (!pinned.isValid()) {
+                    releasePinnedConnection(pinned);
+                }
+                throw retryError;
+            }
+        }
+    }
+
+    /**
+     * 获取当前线程的固定连接，距离上次检查超过检查间隔时先检查连接是否可用
+     */
+    private PinnedConnection pinnedConnection() throws SQLException {
+        PinnedConnection pinned = config.pinnedConnection.get();
+        if (pinned != null) {
+            long now = System.currentTimeMillis();
+            if (pinned.closed) {
+                pinned = null;
+            } else if (now - pinned.lastCheckMillis >= config.connectionCheckMillis) {
+                if (pinned.isValid()) {
+                    pinned.lastCheckMillis = now;
+                } else {
+                    log.warn("固定连接不可用，重新连接");
+                    releasePinnedConnection(pinned);
+                    pinned = null;
+                }
+            }
+        }
+        if (pinned == null) {
+            pinned = new PinnedConnection(Thread.currentThread(), config.dataSource.getConnection());
+            config.pinnedConnection.set(pinned);
+            config.pinnedConnectionSet.add(pinned);
+        }
+        return pinned;
+    }
+
+    private void releasePinnedConnection(PinnedConnection pinned) {
+        if (config.pinnedConnectionSet.remove(pinned)) {
+            pinned.close();
+        }
+    }
+
+    /**
+     * 归还已经结束的线程占用的固定连接
+     */
+    private void releaseDeadPinnedConnections() {
+        for (PinnedConnection pinned : config.pinnedConnectionSet) {
+            if (!pinned.owner.isAlive()) {
+                releasePinnedConnection(pinned);
+            }
+        }
+    }
+
+    /**
+     * 刷写线程固定使用的连接，只能由所属线程使用，线程结束或者关闭时归还
+     */
+    private static class PinnedConnection {
+        private final Thread owner;
+        private final Connection connection;
+        private Statement statement;
+        private long lastCheckMillis = System.currentTimeMillis();
+        private volatile boolean closed;
+
+        private PinnedConnection(Thread owner, Connection connection) {
+            this.owner = owner;
+            this.connection = connection;
+        }
+
+        private Statement statement() throws SQLException {
+            if (statement == null) {
+                statement = connection.createStatement();
+            }
+            return statement;
+        }
+
+        private boolean isValid() {
+            try {
+                return !connection.isClosed() && connection.isValid(5);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        private void close() {
+            closed = true;
+            closeQuietly(statement);
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * 增量读取表中新写入的数据，参考 {@link TailReader}
+     *
+     * @param databaseName 数据库名称
+     * @param tableName    超级表或者普通表、子表名称
+     * @param rowHandler   行处理器，同步调用，处理慢时读取也会变慢
+     * @return 构建器
+     */
+    public TailReader.Builder tailReader(String databaseName, String tableName, RowHandler rowHandler) {
+        return new TailReader.Builder(this, databaseName, tableName, rowHandler);
+    }
+
+    /**
+     * 批量维护的进度回调，在执行任务的线程中串行调用
+     */
+    @FunctionalInterface
+    public interface BulkProgress {
+        /**
+         * @param completed 已完成的表数量，包括从检查点跳过的
+         * @param failed    失败的表数量
+         * @param total     总的表数量，未知时为-1
+         */
+        void onProgress(long completed, long failed, long total);
+    }
+
+    /**
+     * 对每个子表执行的维护任务
+     */
+    @FunctionalInterface
+    public interface TableTask {
+        /**
+         * @param tableName 子表名
+         * @throws Exception 抛出异常时这个表记为失败，不写入检查点，下次可以重新执行
+         */
+        void apply(String tableName) throws Exception;
+    }
+
+    /**
+     * 批量维护的结果
+     */
+    public static class BulkResult {
+        private long completed;
+        private long skipped;
+        private final List<String> failedTables = Collections.synchronizedList(new ArrayList<>());
+
+        /**
+         * @return 本次完成的表数量
+         */
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * @return 检查点中已经完成而跳过的表数量
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return 失败的表
+         */
+        public List<String> getFailedTables() {
+            return failedTables;
+        }
+
+        @Override
+        public String toString() {
+            return StrUtil.format("completed={} skipped={} failed={}", completed, skipped, failedTables.size());
+        }
+    }
+
+    /**
+     * 流式查询超级表下的子表名，不会把结果全部放入内存
+     *
+     * @param databaseName   数据库名称
+     * @param superTableName 超级表名称
+     * @param condition      附加的查询条件，例如 "table_name not like 'd_p_%'"，为null时查询全部子表
+     * @param consumer       子表名处理器
+     * @return 子表数量
+     */
+    public long queryTableNames(String databaseName, String superTableName, String condition, Consumer<String> consumer) {
+        StringBuilder sql = new StringBuilder("select table_name from information_schema.ins_tables where db_name=");
+        appendString(sql, databaseName);
+        sql.append(" and stable_name=");
+        appendString(sql, superTableName);
+        if (StrUtil.isNotBlank(condition)) {
+            sql.append(" and (").append(condition).append(')');
+        }
+        return querySql(sql.toString(), row -> consumer.accept((String) row.get("table_name")));
+    }
+
+    /**
+     * 查询超级表下的子表名
+     *
+     * @param databaseName   数据库名称
+     * @param superTableName 超级表名称
+     * @param condition      附加的查询条件，为null时查询全部子表
+     * @return 子表名
+     */
+    public List<String> queryTableNames(String databaseName, String superTableName, String condition) {
+        List<String> tableNames = new ArrayList<>();
+        queryTableNames(databaseName, superTableName, condition, tableNames::add);
+        return tableNames;
+    }
+
+    /**
+     * 批量删除子表，多个表合并为一条 DROP TABLE IF EXISTS a, IF EXISTS b ... 语句，长度不超过 maxSqlLength
+     * <p>
+     * 边读取子表名边生成语句并执行，子表名可以来自流式读取，不需要全部放入内存；
+     * 可重试的异常按照重试配置重试；不可重试的异常二分拆分语句，定位出删除失败的表
+     *
+     * @param databaseName 数据库名称
+     * @param tableNames   子表名
+     * @param parallelism  并行执行的语句数量
+     * @param progress     进度回调，可以为null，子表名不是 Collection 时总数为-1
+     * @return 删除结果，删除是幂等的，中断后重新查询子表名再次执行即可
+     */
+    public BulkResult dropTables(String databaseName, Iterable<String> tableNames, int parallelism, BulkProgress progress) {
+        BulkResult result = new BulkResult();
+        BulkCounter counter = new BulkCounter(result, tableNames instanceof Collection ? ((Collection<?>) tableNames).size() : -1,
+                progress);
+        try (BulkRunner runner = new BulkRunner(parallelism)) {
+            List<String> current = new ArrayList<>();
+            int length = 0;
+            for (String tableName : tableNames) {
+                int added = dropTableLength(databaseName, tableName);
+                if (!current.isEmpty() && length + added >= config.maxSqlLength) {
+                    List<String> statement = current;
+                    runner.submit(() -> dropTables(databaseName, statement, counter));
+                    current = new ArrayList<>();
+                    length = 0;
+                }
+                if (current.isEmpty()) {
+                    length = "DROP TABLE".length();
+                }
+                current.add(tableName);
+                length += added;
+            }
+            if (!current.isEmpty()) {
+                List<String> statement = current;
+                runner.submit(() -> dropTables(databaseName, statement, counter));
+            }
+            runner.await();
+        }
+        return result;
+    }
+
+    private static int dropTableLength(String databaseName, String tableName) {
+        // ",IF EXISTS `db`.`table`"
+        return 16 + databaseName.length() + tableName.length();
+    }
+
+    private void dropTables(String databaseName, List<String> tableNames, BulkCounter counter) {
+        StringBuilder sql = new StringBuilder("DROP TABLE");
+        for (int i = 0; i < tableNames.size(); i++) {
+            sql.append(i > 0 ? "," : " ").append("IF EXISTS `").append(databaseName).append("`.`").append(tableNames.get(i)).append('`');
+        }
+        Throwable failure = executeWithRetry(() -> executeUpdate(sql.toString()));
+        if (failure == null) {
+            counter.completed(tableNames.size());
+        } else if (tableNames.size() > 1 && !config.retryableError.test(failure)) {
+            int mid = tableNames.size() >>> 1;
+            dropTables(databaseName, tableNames.subList(0, mid), counter);
+            dropTables(databaseName, tableNames.subList(mid, tableNames.size()), counter);
+        } else {
+            log.error("删除子表出错: {} {}", failure.getMessage(), tableNames);
+            counter.failed(tableNames);
+        }
+    }
+
+    /**
+     * 逐个子表复制数据后删除原表，例如把 x 的数据复制到 d_p_x 后删除 x
+     * <p>
+     * 每个表执行 INSERT INTO `db`.`target` SELECT * FROM `db`.`source` 和 DROP TABLE IF EXISTS `db`.`source`，
+     * 目标表需要已经存在，并且列的顺序与原表相同
+     *
+     * @param databaseName    数据库名称
+     * @param tableNames      原表名
+     * @param targetTableName 原表名 -> 目标表名
+     * @param parallelism     并行处理的表数量
+     * @param checkpointFile  检查点文件，记录已经完成的表，重新执行时跳过，为null时不记录
+     * @param progress        进度回调，可以为null
+     * @return 执行结果
+     */
+    public BulkResult copyAndDropTables(String databaseName, List<String> tableNames, Function<String, String> targetTableName,
+                                        int parallelism, String checkpointFile, BulkProgress progress) {
+        return forEachTable(tableNames, parallelism, checkpointFile, tableName -> {
+            String copySql = StrUtil.format("INSERT INTO `{}`.`{}` SELECT * FROM `{}`.`{}`", databaseName,
+                    targetTableName.apply(tableName), databaseName, tableName);
+            Throwable failure = executeWithRetry(() -> executeUpdate(copySql));
+            if (failure == null) {
+                String dropSql = StrUtil.format("DROP TABLE IF EXISTS `{}`.`{}`", databaseName, tableName);
+                failure = executeWithRetry(() -> executeUpdate(dropSql));
+            }
+            if (failure != null) {
+                throw failure instanceof Exception ? (Exception) failure : new RuntimeException(failure);
+            }
+        }, progress);
+    }
+
+    /**
+     * 并行对每个子表执行维护任务，一个表失败不影响其他表
+     *
+     * @param tableNames     子表名
+     * @param parallelism    并行处理的表数量
+     * @param checkpointFile 检查点文件，每完成一个表追加一行表名，重新执行时跳过文件中的表，为null时不记录
+     * @param task           维护任务
+     * @param progress       进度回调，可以为null
+     * @return 执行结果
+     */
+    public BulkResult forEachTable(List<String> tableNames, int parallelism, String checkpointFile, TableTask task,
+                                   BulkProgress progress) {
+        BulkResult result = new BulkResult();
+        BulkCounter counter = new BulkCounter(result, tableNames.size(), progress);
+        List<String> pending = tableNames;
+        BufferedWriter checkpoint = null;
+        try {
+            if (checkpointFile != null) {
+                Path path = Paths.get(checkpointFile);
+                if (Files.exists(path)) {
+                    Set<String> done = new HashSet<>(Files.readAllLines(path, StandardCharsets.UTF_8));
+                    pending = new ArrayList<>(tableNames.size());
+                    for (String tableName : tableNames) {
+                        if (!done.contains(tableName)) {
+                            pending.add(tableName);
+                        }
+                    }
+                    counter.skipped(tableNames.size() - pending.size());
+                    log.info("从检查点恢复: {} 已完成 {} 个表", checkpointFile, result.skipped);
+                }
+                checkpoint = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            List<String> tables = pending;
+            BufferedWriter writer = checkpoint;
+            runBulk(tables.size(), parallelism, index -> {
+                String tableName = tables.get(index);
+                try {
+                    task.apply(tableName);
+                } catch (Exception e) {
+                    log.error("处理子表出错: {} {}", tableName, e.getMessage());
+                    counter.failed(Collections.singletonList(tableName));
+                    return;
+                }
+                if (writer != null) {
+                    synchronized (writer) {
+                        try {
+                            writer.write(tableName);
+                            writer.newLine();
+                            writer.flush();
+                        } catch (IOException e) {
+                            log.error("写入检查点出错: {} {}", tableName, e.getMessage());
+                        }
+                    }
+                }
+                counter.completed(1);
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            closeQuietly(checkpoint);
+        }
+        return result;
+    }
 
-        this.config = config;
+    /**
+     * 批量维护的计数，串行调用进度回调
+     */
+    private static class BulkCounter {
+        private final BulkResult result;
+        private final long total;
+        private final BulkProgress progress;
+
+        private BulkCounter(BulkResult result, long total, BulkProgress progress) {
+            this.result = result;
+            this.total = total;
+            this.progress = progress;
+        }
+
+        private synchronized void skipped(long count) {
+            result.skipped += count;
+            notifyProgress();
+        }
+
+        private synchronized void completed(int count) {
+            result.completed += count;
+            notifyProgress();
+        }
+
+        private synchronized void failed(List<String> tableNames) {
+            result.failedTables.addAll(tableNames);
+            notifyProgress();
+        }
+
+        private void notifyProgress() {
+            if (progress != null) {
+                progress.onProgress(result.completed + result.skipped, result.failedTables.size(), total);
+            }
+        }
     }
 
-    private static class Config {
-        private DataSource dataSource;
-        private final String insertSqlPre = "INSERT INTO";
-        private final StringBuilder sqlBuilder = new StringBuilder();
-        private Integer maxSqlLength = 1024 * 1024;
-        private Boolean showSql = false;
+    /**
+     * 在有界线程池中执行 count 个任务，等待全部完成，任务需要自己处理异常
+     */
+    private void runBulk(int count, int parallelism, IntConsumer task) {
+        if (count == 0) {
+            return;
+        }
+        try (BulkRunner runner = new BulkRunner(Math.min(parallelism, count))) {
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                runner.submit(() -> task.accept(index));
+            }
+            runner.await();
+        }
     }
 
-    public static class Builder {
-        private final Config config = new Config();
+    /**
+     * 批量维护的有界线程池，排队的任务超过线程数量的2倍时提交方等待，任务边生成边执行，不会全部放入内存
+     */
+    private static class BulkRunner implements AutoCloseable {
+        private final Log log = LogFactory.get();
+        private final ExecutorService executor;
+        private final Semaphore permits;
 
-        public TDengineUtil build() {
-            return new TDengineUtil(config);
+        private BulkRunner(int parallelism) {
+            int threads = Math.max(1, parallelism);
+            executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), ThreadUtil.newNamedThreadFactory("TDengineUtil-bulk-", true));
+            permits = new Semaphore(threads * 2);
         }
 
         /**
-         * 设置数据源
-         *
-         * @param dataSource 数据源
-         * @return 构建器
+         * 提交任务，任务需要自己处理异常
          */
-        public Builder dataSource(DataSource dataSource) {
-            config.dataSource = dataSource;
-            return this;
+        private void submit(Runnable task) {
+            permits.acquireUninterruptibly();
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
         }
 
         /**
-         * 设置最大SQL长度
-         * <p>
-         * 默认1024 * 1024字节
-         *
-         * @param maxSqlLength 最大SQL长度
-         * @return 构建器
+         * 等待全部任务完成
          */
-        public Builder setMaxSqlLength(int maxSqlLength) {
-            config.maxSqlLength = maxSqlLength;
-            return this;
+        private void await() {
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    log.debug("等待批量维护任务完成");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
         }
 
+        @Override
+        public void close() {
+            executor.shutdownNow();
+        }
+    }
+    /**
+     * 查询sql语句
+     *
+     * @param sql 查询sql
+     * @return
+     */
+    public List<Map<String, Object>> querySql(String sql) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        querySql(sql, rows::add);
+        return rows;
+    }
+
+    /**
+     * 行处理器，用于流式处理查询结果
+     */
+    @FunctionalInterface
+    public interface RowHandler {
         /**
-         * 是否显示执行SQL
-         * <p>
-         * 默认false
+         * 处理一行数据
          *
-         * @param showSql 是否显示执行SQL
-         * @return 构建器
+         * @param row 行数据(key：列名，value：列值)
+         * @throws Exception 抛出异常会终止查询
          */
-        public Builder setShowSql(boolean showSql) {
-            config.showSql = showSql;
-            return this;
-        }
+        void handle(Map<String, Object> row) throws Exception;
     }
 
     /**
-     * 回收资源
+     * 查询sql语句，逐行回调处理，不会将结果集全部放入内存
+     *
+     * @param sql        查询sql
+     * @param rowHandler 行处理器
+     * @return 处理的行数
      */
-    @Override
-    public void close() {
-        log.info("[销毁 {}] 开始", this.getClass().getSimpleName());
-        await();
-        log.info("[销毁 {}] 结束", this.getClass().getSimpleName());
+    public long querySql(String sql, RowHandler rowHandler) {
+        return querySql(sql, rowHandler, null);
     }
 
-    synchronized private void appendSql(String sql) {
-        if (sql == null) {//代表有人执行了await
-            if (config.sqlBuilder.length() > 0) {
-                executeInsertBatch();
-            }
-            return;
+    /**
+     * @param runningStatements 不为null时记录执行中的语句，用于取消查询
+     */
+    private long querySql(String sql, RowHandler rowHandler, Set<Statement> runningStatements) {
+        if (config.showSql) {
+            log.info("执行SQL: {}", sql);
         }
-        if (config.insertSqlPre.length() + config.sqlBuilder.length() + sql.length() >= config.maxSqlLength) {
-            executeInsertBatch();
+        long start = System.nanoTime();
+        long count = 0;
+        try (Connection conn = config.dataSource.getConnection();
+             Statement stmt = createQueryStatement(conn)) {
+            if (runningStatements != null) {
+                runningStatements.add(stmt);
+            }
+            try (ResultSet resultSet = stmt.executeQuery(sql)) {
+                RowReader rowReader = new RowReader(resultSet.getMetaData());
+                while (resultSet.next()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedException("查询已取消");
+                    }
+                    rowHandler.handle(rowReader.read(resultSet));
+                    count++;
+                }
+            } finally {
+                if (runningStatements != null) {
+                    runningStatements.remove(stmt);
+                }
+            }
+            if (config.metrics != null) {
+                config.metrics.onQuery(count, System.nanoTime() - start, true);
+            }
+            return count;
+        } catch (Exception e) {
+            if (config.metrics != null) {
+                config.metrics.onQuery(count, System.nanoTime() - start, false);
+            }
+            log.error("查询sql语句出错: {} {}", e.getMessage(), sql);
+            throw new RuntimeException(e);
         }
-        config.sqlBuilder.append(sql);
     }
 
-    private void executeInsertBatch() {
-        while (true) {//确保一定执行成功
-            try {
-                executeSql(config.insertSqlPre + config.sqlBuilder);
-                break;
-            } catch (Exception e) {
-                ThreadUtil.sleep(1000 * 10); // 10秒后重试
-            }
+    /**
+     * 按照时间范围切片生成查询语句
+     *
+     * @param sqlTemplate 查询模板，两个{}占位符依次替换为切片的开始时间(包含)和结束时间(不包含)，
+     *                    例如 select * from db.stable where ts >= {} and ts < {} order by ts
+     * @param startMillis 开始时间，毫秒
+     * @param endMillis   结束时间，毫秒，不包含
+     * @param slices      切片数量
+     * @return 按照时间顺序排列的查询语句
+     */
+    public List<String> sliceByTime(String sqlTemplate, long startMillis, long endMillis, int slices) {
+        if (slices < 1 || endMillis <= startMillis) {
+            throw new IllegalArgumentException("slices 必须大于0，endMillis 必须大于 startMillis");
+        }
+        long step = Math.max((endMillis - startMillis + slices - 1) / slices, 1);
+        List<String> sqls = new ArrayList<>(slices);
+        for (long start = startMillis; start < endMillis; start += step) {
+            long end = Math.min(start + step, endMillis);
+            long multiplier = config.timestampMultiplier == null ? 1L : config.timestampMultiplier;
+            sqls.add(StrUtil.format(sqlTemplate, start * multiplier, end * multiplier));
         }
-        config.sqlBuilder.setLength(0);
+        return sqls;
     }
 
     /**
-     * 等待所有任务完成
+     * 按照分区生成查询语句，例如按子表名或者标签值分区
+     *
+     * @param sqlTemplate 查询模板，{}占位符替换为分区值，例如 select * from db.`{}` order by ts
+     * @param partitions  分区值
+     * @return 查询语句
      */
-    public void await() {
-        appendSql(null);
+    public List<String> sliceByPartition(String sqlTemplate, Collection<?> partitions) {
+        List<String> sqls = new ArrayList<>(partitions.size());
+        for (Object partition : partitions) {
+            sqls.add(StrUtil.format(sqlTemplate, partition));
+        }
+        return sqls;
     }
 
     /**
-     * 异步插入一条记录，需要在合适的位置调用await方法，避免还未写入完毕就结束程序
-     * （TDengine3.3版本开始使用这种写法）
+     * 并行执行多个查询语句并合并结果，任意一个查询失败时取消其余查询
      *
-     * @param databaseName   数据库名称
-     * @param superTableName 超级表名称
-     * @param tableName      表名
-     * @param fieldsAndTags  行数据，包括列和标签数据(key：列名或者标签名，value：列值或者标签值)
+     * @param sqls        查询语句，通常来自 {@link #sliceByTime} 或 {@link #sliceByPartition}
+     * @param parallelism 最大并发数，建议不超过连接池最大连接数
+     * @param orderColumn 排序列名，每个查询的结果需要已经按照该列升序，合并时保持整体有序；为null时按照完成顺序合并
+     * @return 合并后的结果
      */
-    public void appendInsert(String databaseName, String superTableName, String tableName, Map<String, ?> fieldsAndTags) {
-        String sql = genSqlv33(databaseName, superTableName, tableName, fieldsAndTags);
-        appendSql(sql);
-    }
-
-    private String genSqlv33(String databaseName, String superTableName, String tableName, Map<String, ?> fieldsAndTags) {
-        // databaseName : 数据库名
-        // superTableName : 超级表名
-        // tableName : 表名
-        // tbname : 固定占位符，这个名称不能改变
-        // fieldName : 列名
-        // fieldValue : 列值
-        // tagName : 标签名
-        // tagValue : 标签值
-
-        // TDengine3.3版本开始使用这种写法
-        // INSERT INTO `databaseName`.`superTableName` (`tbname`,`fieldName1`,`tagName1` ,...) values ('tableName','fieldValue1','tagValue1' ,...)
-        List<String> fieldAndTagNames = new ArrayList<>();
-        List<String> fieldAndTagValues = new ArrayList<>();
-        fieldsAndTags.forEach((key, value) -> {
-            if (value != null) {
-                fieldAndTagNames.add("`" + key + "`");
-                fieldAndTagValues.add("'" + Convert.toStr(value) + "'");
+    public List<Map<String, Object>> queryParallel(List<String> sqls, int parallelism, String orderColumn) {
+        List<List<Map<String, Object>>> results = new ArrayList<>(sqls.size());
+        List<Map<String, Object>> unordered = new ArrayList<>();
+        for (int i = 0; i < sqls.size(); i++) {
+            results.add(new ArrayList<>());
+        }
+        runParallel(sqls, parallelism, (index, sql, running) -> {
+            List<Map<String, Object>> rows = results.get(index);
+            querySql(sql, rows::add, running);
+            if (orderColumn == null) {
+                synchronized (unordered) {
+                    unordered.addAll(rows);
+                }
+                rows.clear();
             }
         });
-        // 注意这里没有 INSERT INTO
-        String sql = StrUtil.format(" `{}`.`{}` (`tbname`,{}) values ('{}',{}) ", databaseName, superTableName,
-                CollUtil.join(fieldAndTagNames, ","), tableName, CollUtil.join(fieldAndTagValues, ","));
-        return sql;
+        return orderColumn == null ? unordered : mergeOrdered(results, orderColumn);
     }
 
     /**
-     * 异步插入一条记录，需要在合适的位置调用await方法，避免还未写入完毕就结束程序
-     * （TDengine3.3版本以前使用这种写法）
+     * 并行执行多个查询语句，逐行回调，不会将结果集全部放入内存，任意一个查询失败时取消其余查询
+     * <p>
+     * 回调按照到达顺序串行执行，行处理器不需要考虑线程安全
      *
-     * @param databaseName   数据库名称
-     * @param superTableName 超级表名称
-     * @param tableName      表名
-     * @param fields         列信息(key:列名称，value：列值)
-     * @param tags           标签信息(key：标签名称，value：标签值)
+     * @param sqls        查询语句，通常来自 {@link #sliceByTime} 或 {@link #sliceByPartition}
+     * @param parallelism 最大并发数，建议不超过连接池最大连接数
+     * @param rowHandler  行处理器
+     * @return 处理的总行数
      */
-    public void appendInsert(String databaseName, String superTableName, String tableName, Map<String, ?> fields,
-                             Map<String, ?> tags) {
-        String sql = genSql(databaseName, superTableName, tableName, fields, tags);
-        appendSql(sql);
+    public long queryParallel(List<String> sqls, int parallelism, RowHandler rowHandler) {
+        AtomicLong count = new AtomicLong();
+        runParallel(sqls, parallelism, (index, sql, running) -> count.addAndGet(querySql(sql, row -> {
+            synchronized (rowHandler) {
+                rowHandler.handle(row);
+            }
+        }, running)));
+        return count.get();
     }
 
-    private String genSql(String databaseName, String superTableName, String tableName, Map<String, ?> fields, Map<String, ?> tags) {
-        // databaseName : 数据库名
-        // superTableName : 超级表名
-        // tableName : 表名
-        // fieldName : 列名
-        // fieldValue : 列值
-        // tagName : 标签名
-        // tagValue : 标签值
+    @FunctionalInterface
+    private interface SliceQuery {
+        void query(int index, String sql, Set<Statement> runningStatements) throws Exception;
+    }
 
-        // TDengine3.3版本以前使用这种写法
-        // INSERT INTO `databaseName`.`tableName` USING `databaseName`.`superTableName` (`tagName1`,...) TAGS ('tagValue1',...) (`fieldName1`,...) VALUES ('fieldValue1',...)
-        List<String> fieldNames = new ArrayList<>();
-        List<String> fieldValues = new ArrayList<>();
-        fields.forEach((key, value) -> {
-            if (value != null) {
-                fieldNames.add("`" + key + "`");
-                fieldValues.add("'" + Convert.toStr(value) + "'");
+    private void runParallel(List<String> sqls, int parallelism, SliceQuery sliceQuery) {
+        if (sqls.isEmpty()) {
+            return;
+        }
+        int threads = Math.max(1, Math.min(parallelism, sqls.size()));
+        ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), ThreadUtil.newNamedThreadFactory("TDengineUtil-query-", true));
+        Set<Statement> runningStatements = ConcurrentHashMap.newKeySet();
+        ExecutorCompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<Void>> futures = new ArrayList<>(sqls.size());
+        try {
+            for (int i = 0; i < sqls.size(); i++) {
+                int index = i;
+                futures.add(completionService.submit(() -> {
+                    sliceQuery.query(index, sqls.get(index), runningStatements);
+                    return null;
+                }));
             }
-        });
-        List<String> tagNames = new ArrayList<>();
-        List<String> tagValues = new ArrayList<>();
-        tags.forEach((key, value) -> {
-            if (value != null) {
-                tagNames.add("`" + key + "`");
-                tagValues.add("'" + Convert.toStr(value) + "'");
+            for (int i = 0; i < sqls.size(); i++) {
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException e) {
+                    log.error("并行查询出错，取消其余查询: {}", e.getCause().getMessage());
+                    cancelAll(futures, runningStatements);
+                    throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+                }
             }
-        });
-        // 注意这里没有 INSERT INTO
-        String sql = StrUtil.format(" `{}`.`{}` USING `{}`.`{}` ({}) TAGS ({}) ({}) VALUES ({}) ",
-                databaseName, tableName, databaseName, superTableName, CollUtil.join(tagNames, ","),
-                CollUtil.join(tagValues, ","), CollUtil.join(fieldNames, ","), CollUtil.join(fieldValues, ","));
-        return sql;
+        } catch (InterruptedException e) {
+            cancelAll(futures, runningStatements);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
-    /**
-     * 插入一条记录 （TDengine3.3版本开始使用这种写法）
-     *
-     * @param databaseName   数据库名称
-     * @param superTableName 超级表名称
-     * @param tableName      表名
-     * @param fieldsAndTags  行数据，包括列和标签数据(key：列名或者标签名，value：列值或者标签值)
-     */
-    public void insert(String databaseName, String superTableName, String tableName, Map<String, ?> fieldsAndTags) {
-        String sql = genSqlv33(databaseName, superTableName, tableName, fieldsAndTags);
-        executeSql(config.insertSqlPre + sql);
+    private void cancelAll(List<Future<Void>> futures, Set<Statement> runningStatements) {
+        futures.forEach(future -> future.cancel(true));
+        for (Statement stmt : runningStatements) {
+            try {
+                stmt.cancel();
+            } catch (Exception ignored) {
+            }
+        }
     }
 
     /**
-     * 插入一条记录 （TDengine3.3版本以前使用这种写法）
-     *
-     * @param databaseName   数据库名称
-     * @param superTableName 超级表名称
-     * @param tableName      表名
-     * @param fields         列信息(key:列名称，value：列值)
-     * @param tags           标签信息(key：标签名称，value：标签值)
+     * 多路归并已经有序的结果
      */
-    public void insert(String databaseName, String superTableName, String tableName, Map<String, ?> fields, Map<String, ?> tags) {
-        String sql = genSql(databaseName, superTableName, tableName, fields, tags);
-        executeSql(config.insertSqlPre + sql);
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<Map<String, Object>> mergeOrdered(List<List<Map<String, Object>>> results, String orderColumn) {
+        int total = 0;
+        for (List<Map<String, Object>> rows : results) {
+            total += rows.size();
+        }
+        List<Map<String, Object>> merged = new ArrayList<>(total);
+        // 元素为 {结果序号, 行序号}
+        PriorityQueue<int[]> queue = new PriorityQueue<>(Math.max(results.size(), 1), (a, b) -> {
+            Comparable va = (Comparable) results.get(a[0]).get(a[1]).get(orderColumn);
+            Comparable vb = (Comparable) results.get(b[0]).get(b[1]).get(orderColumn);
+            int compare = va == null ? (vb == null ? 0 : -1) : (vb == null ? 1 : va.compareTo(vb));
+            return compare != 0 ? compare : Integer.compare(a[0], b[0]);
+        });
+        for (int i = 0; i < results.size(); i++) {
+            if (!results.get(i).isEmpty()) {
+                queue.add(new int[]{i, 0});
+            }
+        }
+        while (!queue.isEmpty()) {
+            int[] cursor = queue.poll();
+            List<Map<String, Object>> rows = results.get(cursor[0]);
+            merged.add(rows.get(cursor[1]));
+            if (++cursor[1] < rows.size()) {
+                queue.add(cursor);
+            } else {
+                results.set(cursor[0], Collections.emptyList());
+            }
+        }
+        return merged;
     }
 
     /**
-     * 执行更新sql语句
+     * 查询sql语句，返回逐行读取的迭代器，使用完毕后需要关闭，遍历结束时也会自动关闭连接
      *
-     * @param sql sql语句
+     * @param sql 查询sql
+     * @return 行迭代器
      */
-    public void executeSql(String sql) {
+    public RowIterator queryIterator(String sql) {
         if (config.showSql) {
             log.info("执行SQL: {}", sql);
         }
-        try (Connection conn = config.dataSource.getConnection(); Statement stmt = conn.createStatement();) {
-            stmt.executeUpdate(sql);
+        Connection conn = null;
+        Statement stmt = null;
+        try {
+            conn = config.dataSource.getConnection();
+            stmt = createQueryStatement(conn);
+            ResultSet resultSet = stmt.executeQuery(sql);
+            return new RowIterator(conn, stmt, resultSet, sql);
         } catch (Exception e) {
-            log.error("执行sql语句出错: {} {}", e.getMessage(), sql);
+            closeQuietly(stmt);
+            closeQuietly(conn);
+            log.error("查询sql语句出错: {} {}", e.getMessage(), sql);
             throw new RuntimeException(e);
         }
     }
 
     /**
-     * 查询sql语句
+     * 查询sql语句，返回惰性读取的流，需要在try-with-resources中使用或者消费完毕，以便归还连接
      *
      * @param sql 查询sql
-     * @return
+     * @return 行数据流
      */
-    public List<Map<String, Object>> querySql(String sql) {
+    public Stream<Map<String, Object>> queryStream(String sql) {
+        RowIterator iterator = queryIterator(sql);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    private Statement createQueryStatement(Connection conn) throws SQLException {
+        Statement stmt = conn.createStatement();
+        if (config.fetchSize > 0) {
+            stmt.setFetchSize(config.fetchSize);
+        }
+        return stmt;
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    /**
+     * 查询结果行迭代器，持有连接直到遍历结束或者关闭
+     */
+    public class RowIterator implements Iterator<Map<String, Object>>, AutoCloseable {
+        private final Connection conn;
+        private final Statement stmt;
+        private final ResultSet resultSet;
+        private final String sql;
+        private final RowReader rowReader;
+        private Boolean hasNext;
+        private boolean closed;
+        private boolean failed;
+        private long count;
+        private final long start = System.nanoTime();
+
+        private RowIterator(Connection conn, Statement stmt, ResultSet resultSet, String sql) throws SQLException {
+            this.conn = conn;
+            this.stmt = stmt;
+            this.resultSet = resultSet;
+            this.sql = sql;
+            this.rowReader = new RowReader(resultSet.getMetaData());
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (hasNext == null) {
+                try {
+                    hasNext = !closed && resultSet.next();
+                } catch (SQLException e) {
+                    failed = true;
+                    close();
+                    log.error("查询sql语句出错: {} {}", e.getMessage(), sql);
+                    throw new RuntimeException(e);
+                }
+                if (!hasNext) {
+                    close();
+                }
+            }
+            return hasNext;
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            hasNext = null;
+            try {
+                count++;
+                return rowReader.read(resultSet);
+            } catch (SQLException e) {
+                failed = true;
+                close();
+                log.error("查询sql语句出错: {} {}", e.getMessage(), sql);
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeQuietly(resultSet);
+            closeQuietly(stmt);
+            closeQuietly(conn);
+            if (config.metrics != null) {
+                config.metrics.onQuery(count, System.nanoTime() - start, !failed);
+            }
+        }
+    }
+
+    /**
+     * 按照结果集元数据读取行数据，列名和列类型只解析一次
+     */
+    private static class RowReader {
+        private final String[] columnNames;
+        private final int[] columnTypes;
+
+        private RowReader(ResultSetMetaData metaData) throws SQLException {
+            int columnCount = metaData.getColumnCount();
+            columnNames = new String[columnCount];
+            columnTypes = new int[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                columnNames[i] = metaData.getColumnLabel(i + 1);
+                columnTypes[i] = metaData.getColumnType(i + 1);
+            }
+        }
+
+        private Map<String, Object> read(ResultSet resultSet) throws SQLException {
+            Map<String, Object> row = new HashMap<>((int) (columnNames.length / 0.75f) + 1);
+            for (int i = 0; i < columnNames.length; i++) {
+                row.put(columnNames[i], readColumn(resultSet, i + 1, columnTypes[i]));
+            }
+            return row;
+        }
+    }
+
+    /**
+     * 查询sql语句，按列返回基本类型数组，适合数值型时序数据的分析和绘图
+     * <p>
+     * 时间戳为毫秒long数组(毫秒以下的部分另外保存)，整数为long数组，浮点数为double数组，字符串使用字典编码，DECIMAL为BigDecimal
+     *
+     * @param sql 查询sql
+     * @return 列式结果
+     */
+    public ColumnBatch queryColumnar(String sql) {
         if (config.showSql) {
             log.info("执行SQL: {}", sql);
         }
+        long start = System.nanoTime();
         try (Connection conn = config.dataSource.getConnection();
-             Statement stmt = conn.createStatement();
+             Statement stmt = createQueryStatement(conn);
              ResultSet resultSet = stmt.executeQuery(sql);) {
-            List<Map<String, Object>> rows = new ArrayList<>();
-            ResultSetMetaData metaData = resultSet.getMetaData();
-            int columnCount = metaData.getColumnCount();
+            ColumnBatch batch = new ColumnBatch(resultSet.getMetaData());
             while (resultSet.next()) {
-                Map<String, Object> row = new HashMap<>();
-                for (int columnIndex = 1; columnIndex <= columnCount; columnIndex++) {
-                    int columnType = metaData.getColumnType(columnIndex);
-                    String columnName = metaData.getColumnLabel(columnIndex);
-                    switch (columnType) {
-                        case Types.INTEGER:
-                        case Types.SMALLINT:
-                        case Types.TINYINT:
-                            try {
-                                row.put(columnName, resultSet.getInt(columnIndex));
-                            } catch (SQLException e) {
-                                row.put(columnName, resultSet.getLong(columnIndex));
-                            }
-                            break;
-                        case Types.BIGINT:
-                        case Types.NUMERIC:
-                        case Types.DECIMAL:
-                            row.put(columnName, resultSet.getBigDecimal(columnIndex));
-                            break;
-                        case Types.FLOAT:
-                        case Types.REAL:
-                            row.put(columnName, resultSet.getFloat(columnIndex));
-                            break;
-                        case Types.DOUBLE:
-                            row.put(columnName, resultSet.getDouble(columnIndex));
-                            break;
-                        case Types.BOOLEAN:
-                        case Types.BIT:
-                            row.put(columnName, resultSet.getBoolean(columnIndex));
-                            break;
-                        case Types.DATE:
-                            row.put(columnName, resultSet.getDate(columnIndex));
-                            break;
-                        case Types.TIME:
-                            row.put(columnName, resultSet.getTime(columnIndex));
-                            break;
-                        case Types.TIMESTAMP:
-                            row.put(columnName, resultSet.getTimestamp(columnIndex));
-                            break;
-                        case Types.CHAR:
-                        case Types.VARCHAR:
-                        case Types.LONGVARCHAR:
-                        case Types.NCHAR:
-                        case Types.NVARCHAR:
-                        case Types.LONGNVARCHAR:
-                            row.put(columnName, resultSet.getString(columnIndex));
-                            break;
-                        case Types.BINARY:
-                        case Types.VARBINARY:
-                        case Types.LONGVARBINARY:
-                            row.put(columnName, resultSet.getBytes(columnIndex));
-                            break;
-                        case Types.BLOB:
-                            row.put(columnName, resultSet.getBlob(columnIndex));
-                            break;
-                        case Types.CLOB:
-                            row.put(columnName, resultSet.getClob(columnIndex));
-                            break;
-                        case Types.NCLOB:
-                            row.put(columnName, resultSet.getNClob(columnIndex));
-                            break;
-                        case Types.ARRAY:
-                            row.put(columnName, resultSet.getArray(columnIndex));
-                            break;
-                        case Types.REF:
-                            row.put(columnName, resultSet.getRef(columnIndex));
-                            break;
-                        case Types.DATALINK:
-                            row.put(columnName, resultSet.getURL(columnIndex));
-                            break;
-                        case Types.SQLXML:
-                            row.put(columnName, resultSet.getSQLXML(columnIndex));
-                            break;
-                        case Types.ROWID:
-                            row.put(columnName, resultSet.getRowId(columnIndex));
-                            break;
-                        case Types.NULL:
-                            row.put(columnName, null);
-                            break;
-                        case Types.JAVA_OBJECT:
-                        case Types.STRUCT:
-                        case Types.REF_CURSOR:
-                        case Types.TIME_WITH_TIMEZONE:
-                        case Types.TIMESTAMP_WITH_TIMEZONE:
-                        default:
-                            row.put(columnName, resultSet.getObject(columnIndex));
-                            break;
-                    }
-                }
-                rows.add(row);
+                batch.read(resultSet);
             }
-            return rows;
+            batch.trim();
+            if (config.metrics != null) {
+                config.metrics.onQuery(batch.rowCount, System.nanoTime() - start, true);
+            }
+            return batch;
         } catch (Exception e) {
+            if (config.metrics != null) {
+                config.metrics.onQuery(0, System.nanoTime() - start, false);
+            }
             log.error("查询sql语句出错: {} {}", e.getMessage(), sql);
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * 按照JDBC类型读取列值
+     */
+    static Object readColumn(ResultSet resultSet, int columnIndex, int columnType) throws SQLException {
+        switch (columnType) {
+            case Types.INTEGER:
+            case Types.SMALLINT:
+            case Types.TINYINT:
+                try {
+                    return resultSet.getInt(columnIndex);
+                } catch (SQLException e) {
+                    return resultSet.getLong(columnIndex);
+                }
+            case Types.BIGINT:
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return resultSet.getBigDecimal(columnIndex);
+            case Types.FLOAT:
+            case Types.REAL:
+                return resultSet.getFloat(columnIndex);
+            case Types.DOUBLE:
+                return resultSet.getDouble(columnIndex);
+            case Types.BOOLEAN:
+            case Types.BIT:
+                return resultSet.getBoolean(columnIndex);
+            case Types.DATE:
+                return resultSet.getDate(columnIndex);
+            case Types.TIME:
+                return resultSet.getTime(columnIndex);
+            case Types.TIMESTAMP:
+                return resultSet.getTimestamp(columnIndex);
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                return resultSet.getString(columnIndex);
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return resultSet.getBytes(columnIndex);
+            case Types.BLOB:
+                return resultSet.getBlob(columnIndex);
+            case Types.CLOB:
+                return resultSet.getClob(columnIndex);
+            case Types.NCLOB:
+                return resultSet.getNClob(columnIndex);
+            case Types.ARRAY:
+                return resultSet.getArray(columnIndex);
+            case Types.REF:
+                return resultSet.getRef(columnIndex);
+            case Types.DATALINK:
+                return resultSet.getURL(columnIndex);
+            case Types.SQLXML:
+                return resultSet.getSQLXML(columnIndex);
+            case Types.ROWID:
+                return resultSet.getRowId(columnIndex);
+            case Types.NULL:
+                return null;
+            case Types.JAVA_OBJECT:
+            case Types.STRUCT:
+            case Types.REF_CURSOR:
+            case Types.TIME_WITH_TIMEZONE:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+            default:
+                return resultSet.getObject(columnIndex);
+        }
+    }
+
 }
\ No newline at end of file
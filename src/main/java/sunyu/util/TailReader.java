@@ -0,0 +1,397 @@
+package sunyu.util;
+
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.log.Log;
+import cn.hutool.log.LogFactory;
+import sunyu.util.TDengineUtil.RowHandler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 增量读取，按照时间戳水位线分页查询 _rowts > 水位线 的数据，同一个时间戳的行全部处理完后推进水位线
+ * <p>
+ * 默认整个表一个水位线，分页边界上和处理出错时时间戳相同的行不会丢失；
+ * 按子表读取时每个子表一个水位线，可以多个子表并行读取，此时行处理器会被并发调用，同一个子表的行按时间顺序处理
+ * <p>
+ * 水位线保存到检查点文件，重启后从上次的位置继续，至少处理一次；写入时间戳早于水位线的乱序数据不会被读取
+ */
+public class TailReader implements AutoCloseable {
+    private static final String TS_ALIAS = "tail_reader_ts";
+    /**
+     * 整个表一个水位线时检查点中的key
+     */
+    private static final String TABLE_KEY = "*";
+    private final Log log = LogFactory.get();
+    private final TDengineUtil util;
+    private final String databaseName;
+    private final String tableName;
+    private final RowHandler rowHandler;
+    private final String columns;
+    private final boolean bySubTable;
+    private final String subTableCondition;
+    private final int pageSize;
+    private final int parallelism;
+    private final long pollIntervalMillis;
+    private final long tableRefreshMillis;
+    private final long startWatermark;
+    private final Path checkpointFile;
+    private final Map<String, Long> watermarks = new ConcurrentHashMap<>();
+    private List<String> subTables = Collections.emptyList();
+    private long subTablesRefreshMillis;
+    private final ExecutorService executor;
+    private Thread thread;
+    private volatile boolean closed;
+
+    private TailReader(Builder builder) {
+        util = builder.util;
+        databaseName = builder.databaseName;
+        tableName = builder.tableName;
+        rowHandler = builder.rowHandler;
+        columns = builder.columns;
+        bySubTable = builder.bySubTable;
+        subTableCondition = builder.subTableCondition;
+        pageSize = builder.pageSize;
+        parallelism = builder.parallelism;
+        pollIntervalMillis = builder.pollIntervalMillis;
+        tableRefreshMillis = builder.tableRefreshMillis;
+        startWatermark = builder.startMillis == 0 ? 0 : builder.startMillis * util.databaseTimestampMultiplier(databaseName);
+        checkpointFile = builder.checkpointFile == null ? null : Paths.get(builder.checkpointFile);
+        executor = bySubTable && parallelism > 1 ? new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), ThreadUtil.newNamedThreadFactory("TDengineUtil-tail-", true)) : null;
+        loadCheckpoint();
+    }
+
+    /**
+     * 在后台线程中持续读取，没有新数据时等待 pollIntervalMillis
+     *
+     * @return 增量读取
+     */
+    public synchronized TailReader start() {
+        if (thread == null) {
+            thread = ThreadUtil.newThread(() -> {
+                while (!closed) {
+                    long rows = 0;
+                    try {
+                        rows = poll();
+                    } catch (Exception e) {
+                        log.error("增量读取出错: {}", e.getMessage());
+                    }
+                    if (rows == 0 && !closed) {
+                        ThreadUtil.sleep(pollIntervalMillis);
+                    }
+                }
+            }, "TDengineUtil-tail-" + databaseName + "." + tableName, true);
+            thread.start();
+        }
+        return this;
+    }
+
+    /**
+     * 读取一轮，每个水位线读取到没有新数据为止，然后保存检查点
+     *
+     * @return 处理的行数
+     */
+    public long poll() {
+        long rows = 0;
+        try {
+            if (!bySubTable) {
+                rows = pollTable(TABLE_KEY, tableName);
+            } else {
+                refreshSubTables();
+                if (executor == null) {
+                    for (String subTable : subTables) {
+                        if (closed) {
+                            break;
+                        }
+                        rows += pollTable(subTable, subTable);
+                    }
+                } else {
+                    List<Future<Long>> futures = new ArrayList<>(subTables.size());
+                    for (String subTable : subTables) {
+                        futures.add(executor.submit(() -> pollTable(subTable, subTable)));
+                    }
+                    for (Future<Long> future : futures) {
+                        try {
+                            rows += future.get();
+                        } catch (ExecutionException e) {
+                            log.error("增量读取出错: {}", e.getCause().getMessage());
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            saveCheckpoint();
+        }
+        return rows;
+    }
+
+    private void refreshSubTables() {
+        long now = System.currentTimeMillis();
+        if (now - subTablesRefreshMillis >= tableRefreshMillis) {
+            subTables = util.queryTableNames(databaseName, tableName, subTableCondition);
+            subTablesRefreshMillis = now;
+        }
+    }
+
+    /**
+     * 分页读取一个水位线之后的数据，读到不满一页为止
+     */
+    private long pollTable(String key, String table) {
+        long rows = 0;
+        while (!closed) {
+            long watermark = watermarks.getOrDefault(key, startWatermark);
+            List<Map<String, Object>> page = util.querySql(StrUtil.format(
+                    "select {}, cast(_rowts as bigint) as {} from `{}`.`{}` where _rowts > {} order by _rowts limit {}",
+                    columns, TS_ALIAS, databaseName, table, watermark, pageSize));
+            boolean full = page.size() >= pageSize;
+            if (full && !bySubTable) {
+                // 超级表中不同子表的时间戳可能相同，最后一个时间戳的行可能没有读完，留到下一页
+                long lastTs = ts(page.get(page.size() - 1));
+                int end = page.size();
+                while (end > 0 && ts(page.get(end - 1)) == lastTs) {
+                    end--;
+                }
+                if (end == 0) {
+                    // 整页都是同一个时间戳，单独读取这个时间戳的全部行
+                    page = util.querySql(StrUtil.format("select {}, cast(_rowts as bigint) as {} from `{}`.`{}` where _rowts = {}",
+                            columns, TS_ALIAS, databaseName, table, lastTs));
+                } else {
+                    page = page.subList(0, end);
+                }
+            }
+            for (int i = 0; i < page.size(); i++) {
+                Map<String, Object> row = page.get(i);
+                long ts = ts(row);
+                row.remove(TS_ALIAS);
+                try {
+                    rowHandler.handle(row);
+                } catch (Exception e) {
+                    log.error("增量读取处理数据出错，下次从 {} 继续: {}", watermarks.getOrDefault(key, startWatermark), e.getMessage());
+                    return rows;
+                }
+                rows++;
+                // 同一个时间戳的行全部处理完才推进水位线，中途出错时下次重新读取这个时间戳的全部行
+                if (i == page.size() - 1 || ts(page.get(i + 1)) != ts) {
+                    watermarks.put(key, ts);
+                }
+            }
+            if (!full) {
+                break;
+            }
+        }
+        return rows;
+    }
+
+    private static long ts(Map<String, Object> row) {
+        return ((Number) row.get(TS_ALIAS)).longValue();
+    }
+
+    /**
+     * @param subTable 子表名称，整个表一个水位线时为null
+     * @return 水位线，数据库精度的时间戳，没有读取过时为null
+     */
+    public Long getWatermark(String subTable) {
+        return watermarks.get(subTable == null ? TABLE_KEY : subTable);
+    }
+
+    /**
+     * 检查点文件每行为 key + TAB + 水位线
+     */
+    private void loadCheckpoint() {
+        if (checkpointFile == null || !Files.exists(checkpointFile)) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(checkpointFile, StandardCharsets.UTF_8)) {
+                int tab = line.lastIndexOf('\t');
+                if (tab > 0) {
+                    watermarks.put(line.substring(0, tab), Long.parseLong(line.substring(tab + 1)));
+                }
+            }
+            log.info("从检查点恢复水位线: {} 共 {} 个", checkpointFile, watermarks.size());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 先写入临时文件再重命名，写了一半的检查点不会覆盖上一次的
+     */
+    private synchronized void saveCheckpoint() {
+        if (checkpointFile == null || watermarks.isEmpty()) {
+            return;
+        }
+        List<String> lines = new ArrayList<>(watermarks.size());
+        watermarks.forEach((key, watermark) -> lines.add(key + '\t' + watermark));
+        Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try {
+            Files.write(tmp, lines, StandardCharsets.UTF_8);
+            Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("保存检查点出错: {} {}", checkpointFile, e.getMessage());
+        }
+    }
+
+    /**
+     * 停止读取并保存检查点，不会关闭 TDengineUtil
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Thread running;
+        synchronized (this) {
+            running = thread;
+        }
+        if (running != null) {
+            running.interrupt();
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        saveCheckpoint();
+    }
+
+    /**
+     * 增量读取构建器
+     */
+    public static class Builder {
+        private final TDengineUtil util;
+        private final String databaseName;
+        private final String tableName;
+        private final RowHandler rowHandler;
+        private String columns = "*";
+        private boolean bySubTable = false;
+        private String subTableCondition;
+        private int pageSize = 10000;
+        private int parallelism = 1;
+        private long pollIntervalMillis = 1000L;
+        private long tableRefreshMillis = 60 * 1000L;
+        private long startMillis = 0L;
+        private String checkpointFile;
+
+        Builder(TDengineUtil util, String databaseName, String tableName, RowHandler rowHandler) {
+            this.util = util;
+            this.databaseName = databaseName;
+            this.tableName = tableName;
+            this.rowHandler = rowHandler;
+        }
+
+        public TailReader build() {
+            return new TailReader(this);
+        }
+
+        /**
+         * 查询的列
+         * <p>
+         * 默认*
+         *
+         * @param columns 列，例如 "`3014`, `2205`, did"
+         * @return 构建器
+         */
+        public Builder setColumns(String columns) {
+            this.columns = columns;
+            return this;
+        }
+
+        /**
+         * 按子表读取，每个子表一个水位线，子表列表定期从 information_schema.ins_tables 刷新
+         *
+         * @param parallelism 并行读取的子表数量
+         * @param condition   子表名的附加查询条件，为null时读取全部子表
+         * @return 构建器
+         */
+        public Builder setBySubTable(int parallelism, String condition) {
+            this.bySubTable = true;
+            this.parallelism = parallelism;
+            this.subTableCondition = condition;
+            return this;
+        }
+
+        /**
+         * 每页的最大行数
+         * <p>
+         * 默认10000
+         *
+         * @param pageSize 行数
+         * @return 构建器
+         */
+        public Builder setPageSize(int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * 没有新数据时的等待时间
+         * <p>
+         * 默认1000毫秒
+         *
+         * @param pollIntervalMillis 毫秒
+         * @return 构建器
+         */
+        public Builder setPollIntervalMillis(long pollIntervalMillis) {
+            this.pollIntervalMillis = pollIntervalMillis;
+            return this;
+        }
+
+        /**
+         * 按子表读取时刷新子表列表的间隔
+         * <p>
+         * 默认60秒
+         *
+         * @param tableRefreshMillis 毫秒
+         * @return 构建器
+         */
+        public Builder setTableRefreshMillis(long tableRefreshMillis) {
+            this.tableRefreshMillis = tableRefreshMillis;
+            return this;
+        }
+
+        /**
+         * 没有检查点时的起始时间，只读取之后的数据
+         * <p>
+         * 按照读取的数据库的时间戳精度转换，默认0，读取全部历史数据
+         *
+         * @param startMillis 毫秒时间戳
+         * @return 构建器
+         */
+        public Builder setStartMillis(long startMillis) {
+            this.startMillis = startMillis;
+            return this;
+        }
+
+        /**
+         * 检查点文件，每轮读取后保存水位线，重启后从上次的位置继续
+         *
+         * @param checkpointFile 文件路径
+         * @return 构建器
+         */
+        public Builder setCheckpointFile(String checkpointFile) {
+            this.checkpointFile = checkpointFile;
+            return this;
+        }
+    }
+}
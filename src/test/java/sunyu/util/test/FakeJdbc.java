@@ -0,0 +1,284 @@
+package sunyu.util.test;
+
+import com.taosdata.jdbc.TaosPrepareStatement;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 测试用的进程内假JDBC实现，不需要连接TDengine
+ * <p>
+ * 记录执行过的写入sql和参数绑定的批次，查询语句的结果由 {@link #setQueryHandler(Function)} 提供，
+ * 写入出错由 {@link #setFailure(Function)} 模拟
+ */
+public class FakeJdbc {
+    private final List<String> sqls = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> stmtBatches = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger openedConnections = new AtomicInteger();
+    private final AtomicInteger closedConnections = new AtomicInteger();
+    private volatile Function<String, ? extends Throwable> failure = sql -> null;
+    private volatile Function<String, List<Map<String, Object>>> queryHandler = sql -> Collections.emptyList();
+    private final DataSource dataSource = proxy(DataSource.class, (proxy, method, args) ->
+            "getConnection".equals(method.getName()) ? connection() : defaultValue(method));
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * @param failure 根据sql返回要抛出的异常，返回null时写入成功；参数绑定写入时为预编译的sql
+     */
+    public void setFailure(Function<String, ? extends Throwable> failure) {
+        this.failure = failure;
+    }
+
+    /**
+     * @param queryHandler 根据sql返回查询结果，每行的key为列名，按照第一行的key顺序和值类型生成列
+     */
+    public void setQueryHandler(Function<String, List<Map<String, Object>>> queryHandler) {
+        this.queryHandler = queryHandler;
+    }
+
+    /**
+     * @return 写入成功的sql，按执行顺序
+     */
+    public List<String> getSqls() {
+        return sqls;
+    }
+
+    /**
+     * @return 参数绑定写入成功的子表批次，格式为 子表名 + 第一列(时间戳)的值，按执行顺序
+     */
+    public List<String> getStmtBatches() {
+        return stmtBatches;
+    }
+
+    public int getOpenedConnections() {
+        return openedConnections.get();
+    }
+
+    public int getClosedConnections() {
+        return closedConnections.get();
+    }
+
+    /**
+     * @param rowPrefix 每行sql片段的开头，例如 ('test
+     * @return 写入成功的sql中包含的行数
+     */
+    public int writtenRows(String rowPrefix) {
+        int rows = 0;
+        synchronized (sqls) {
+            for (String sql : sqls) {
+                for (int i = sql.indexOf(rowPrefix); i >= 0; i = sql.indexOf(rowPrefix, i + 1)) {
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    private Connection connection() {
+        openedConnections.incrementAndGet();
+        boolean[] closed = new boolean[1];
+        return proxy(Connection.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "createStatement":
+                    return statement();
+                case "prepareStatement":
+                    return preparedStatement((String) args[0]);
+                case "isValid":
+                    return !closed[0];
+                case "isClosed":
+                    return closed[0];
+                case "close":
+                    if (!closed[0]) {
+                        closed[0] = true;
+                        closedConnections.incrementAndGet();
+                    }
+                    return null;
+                default:
+                    return defaultValue(method);
+            }
+        });
+    }
+
+    private Statement statement() {
+        return proxy(Statement.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "executeUpdate":
+                case "execute":
+                    String sql = (String) args[0];
+                    Throwable e = failure.apply(sql);
+                    if (e != null) {
+                        throw e;
+                    }
+                    sqls.add(sql);
+                    return method.getReturnType() == boolean.class ? Boolean.FALSE : (Object) 1;
+                case "executeQuery":
+                    return resultSet(queryHandler.apply((String) args[0]));
+                default:
+                    return defaultValue(method);
+            }
+        });
+    }
+
+    private TaosPrepareStatement preparedStatement(String sql) {
+        List<String> pending = new ArrayList<>();
+        String[] table = new String[1];
+        Object[] firstColumn = new Object[1];
+        return proxy(TaosPrepareStatement.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "unwrap":
+                    return proxy;
+                case "isWrapperFor":
+                    return true;
+                case "setTableName":
+                    table[0] = (String) args[0];
+                    return null;
+                case "columnDataAddBatch":
+                    pending.add(table[0] + " " + firstColumn[0]);
+                    return null;
+                case "columnDataExecuteBatch":
+                    Throwable e = failure.apply(sql);
+                    if (e != null) {
+                        pending.clear();
+                        throw e;
+                    }
+                    stmtBatches.addAll(pending);
+                    pending.clear();
+                    return null;
+                default:
+                    if (method.getName().startsWith("set") && args != null && args.length >= 2
+                            && !method.getName().startsWith("setTag") && Integer.valueOf(0).equals(args[0])) {
+                        firstColumn[0] = args[1];
+                    }
+                    return defaultValue(method);
+            }
+        });
+    }
+
+    private ResultSet resultSet(List<Map<String, Object>> rows) {
+        List<String> columns = rows.isEmpty() ? Collections.emptyList() : new ArrayList<>(rows.get(0).keySet());
+        ResultSetMetaData metaData = proxy(ResultSetMetaData.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getColumnCount":
+                    return columns.size();
+                case "getColumnLabel":
+                case "getColumnName":
+                    return columns.get((Integer) args[0] - 1);
+                case "getColumnType":
+                    return jdbcType(rows.get(0).get(columns.get((Integer) args[0] - 1)));
+                default:
+                    return defaultValue(method);
+            }
+        });
+        return proxy(ResultSet.class, new InvocationHandler() {
+            int row = -1;
+            Object last;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "next":
+                        return ++row < rows.size();
+                    case "getMetaData":
+                        return metaData;
+                    case "wasNull":
+                        return last == null;
+                    default:
+                        if (!method.getName().startsWith("get") || args == null || args.length != 1) {
+                            return defaultValue(method);
+                        }
+                        String column = args[0] instanceof Integer ? columns.get((Integer) args[0] - 1) : (String) args[0];
+                        last = rows.get(row).get(column);
+                        return convert(last, method);
+                }
+            }
+        });
+    }
+
+    private static int jdbcType(Object value) {
+        if (value instanceof Timestamp) {
+            return Types.TIMESTAMP;
+        }
+        if (value instanceof Integer) {
+            return Types.INTEGER;
+        }
+        if (value instanceof Long) {
+            return Types.BIGINT;
+        }
+        if (value instanceof Double) {
+            return Types.DOUBLE;
+        }
+        if (value instanceof BigDecimal) {
+            return Types.DECIMAL;
+        }
+        if (value instanceof Boolean) {
+            return Types.BOOLEAN;
+        }
+        return Types.VARCHAR;
+    }
+
+    private static Object convert(Object value, Method method) {
+        if (value == null) {
+            return defaultValue(method);
+        }
+        switch (method.getName()) {
+            case "getInt":
+                return ((Number) value).intValue();
+            case "getLong":
+                return value instanceof Timestamp ? ((Timestamp) value).getTime() : ((Number) value).longValue();
+            case "getDouble":
+                return ((Number) value).doubleValue();
+            case "getFloat":
+                return ((Number) value).floatValue();
+            case "getBigDecimal":
+                return value instanceof BigDecimal ? value : new BigDecimal(value.toString());
+            case "getString":
+                return String.valueOf(value);
+            default:
+                return value;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, handler);
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> returnType = method.getReturnType();
+        if (returnType == boolean.class) {
+            return false;
+        }
+        if (returnType == int.class) {
+            return 0;
+        }
+        if (returnType == long.class) {
+            return 0L;
+        }
+        if (returnType == double.class) {
+            return 0D;
+        }
+        if (returnType == float.class) {
+            return 0F;
+        }
+        if (returnType == short.class) {
+            return (short) 0;
+        }
+        if (returnType == byte.class) {
+            return (byte) 0;
+        }
+        return null;
+    }
+}
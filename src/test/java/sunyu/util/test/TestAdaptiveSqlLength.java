@@ -0,0 +1,81 @@
+package sunyu.util.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sunyu.util.TDengineUtil;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 自适应SQL长度的阈值调整，不需要连接TDengine
+ */
+public class TestAdaptiveSqlLength {
+    static final int MAX = 16 * 1024;
+    static final int MIN = 1024;
+    final FakeJdbc jdbc = new FakeJdbc();
+    final AtomicInteger deadLetters = new AtomicInteger();
+
+    TDengineUtil build(long targetLatencyMillis) {
+        return TDengineUtil.builder().dataSource(jdbc.getDataSource()).setTimestampPrecision("ms").setFlushThreads(0)
+                .setMaxSqlLength(MAX).setAdaptiveSqlLength(MIN, targetLatencyMillis).setRetryBackoff(1, 10)
+                .setDeadLetterHandler((insertSqlPre, rows, cause) -> deadLetters.addAndGet(rows.size())).build();
+    }
+
+    void appendRows(TDengineUtil util, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("ts", 1768838400000L + i);
+            row.put("v", i);
+            util.appendInsert("frequent", "d_p", "test" + (i % 10), row);
+        }
+    }
+
+    @Test
+    void sql过长时阈值减半并且不丢数据() {
+        // 模拟服务端只接受4000字节以内的sql
+        jdbc.setFailure(sql -> sql.length() > 4000 ? new SQLException("sql too long", "", 0x80002600) : null);
+        try (TDengineUtil util = build(10000)) {
+            Assertions.assertEquals(MAX, util.getSqlLengthLimit());
+            appendRows(util, 0, 2000);
+            util.await();
+            // 以出错的sql长度为准减半，直到低于服务端限制
+            Assertions.assertTrue(util.getSqlLengthLimit() <= 4000 + MAX / 16, "阈值: " + util.getSqlLengthLimit());
+            Assertions.assertTrue(util.getSqlLengthLimit() >= MIN);
+        }
+        Assertions.assertEquals(0, deadLetters.get());
+        Assertions.assertEquals(2000, jdbc.writtenRows("('test"));
+    }
+
+    @Test
+    void 刷写耗时超过目标时阈值减少低于目标时恢复() {
+        boolean[] slow = {true};
+        jdbc.setFailure(sql -> {
+            if (slow[0]) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return null;
+        });
+        try (TDengineUtil util = build(5)) {
+            appendRows(util, 0, 3000);
+            util.await();
+            int shrunk = util.getSqlLengthLimit();
+            Assertions.assertTrue(shrunk < MAX, "阈值: " + shrunk);
+            Assertions.assertTrue(shrunk >= MIN);
+
+            slow[0] = false;
+            appendRows(util, 3000, 6000);
+            util.await();
+            Assertions.assertTrue(util.getSqlLengthLimit() > shrunk, "阈值: " + util.getSqlLengthLimit());
+            Assertions.assertTrue(util.getSqlLengthLimit() <= MAX);
+        }
+        Assertions.assertEquals(6000, jdbc.writtenRows("('test"));
+    }
+}
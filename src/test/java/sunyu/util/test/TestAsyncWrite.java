@@ -0,0 +1,128 @@
+package sunyu.util.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sunyu.util.TDengineUtil;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 异步写入的结果通知，不需要连接TDengine
+ */
+public class TestAsyncWrite {
+    static final int ROWS = 10;
+    final FakeJdbc jdbc = new FakeJdbc();
+    /**
+     * 每一行结果完成时所在的线程名称
+     */
+    final List<String> callbackThreads = Collections.synchronizedList(new ArrayList<>());
+
+    TDengineUtil.Builder builder() {
+        return TDengineUtil.builder().dataSource(jdbc.getDataSource()).setTimestampPrecision("ms").setFlushThreads(1);
+    }
+
+    List<CompletableFuture<Void>> appendRows(TDengineUtil util) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("ts", 1768838400000L + i);
+            row.put("v", i);
+            row.put("protocol", i == 7 ? "bad" : "xxx");
+            CompletableFuture<Void> future = util.appendInsertAsync("frequent", "d_p", "test" + (i % 3), row);
+            // 批次没有写满，写入之前注册回调，回调在完成结果的线程中执行
+            futures.add(future.whenComplete((v, e) -> callbackThreads.add(Thread.currentThread().getName())));
+        }
+        return futures;
+    }
+
+    void waitAll(List<CompletableFuture<Void>> futures) throws InterruptedException, TimeoutException {
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                // 失败的行单独检查
+            }
+        }
+    }
+
+    @Test
+    void 批次写入后在异步线程池中完成每一行的结果() throws Exception {
+        List<CompletableFuture<Void>> futures;
+        try (TDengineUtil util = builder().build()) {
+            futures = appendRows(util);
+            Assertions.assertTrue(futures.stream().noneMatch(CompletableFuture::isDone));
+            util.await();
+            waitAll(futures);
+        }
+        Assertions.assertTrue(futures.stream().noneMatch(CompletableFuture::isCompletedExceptionally));
+        Assertions.assertEquals(ROWS, callbackThreads.size());
+        for (String thread : callbackThreads) {
+            Assertions.assertTrue(thread.startsWith("TDengineUtil-async-"), thread);
+        }
+    }
+
+    @Test
+    void 只有写入失败的行异常完成() throws Exception {
+        jdbc.setFailure(sql -> sql.contains("'bad'") ? new SQLException("value rejected", "", 0x80002600) : null);
+        List<CompletableFuture<Void>> futures;
+        try (TDengineUtil util = builder().setDeadLetterHandler((insertSqlPre, rows, cause) -> {
+        }).build()) {
+            futures = appendRows(util);
+            util.await();
+            waitAll(futures);
+        }
+        for (int i = 0; i < ROWS; i++) {
+            Assertions.assertEquals(i == 7, futures.get(i).isCompletedExceptionally(), "第" + i + "行");
+        }
+        Assertions.assertEquals(ROWS - 1, jdbc.writtenRows("('test"));
+    }
+
+    @Test
+    void 使用指定的线程池完成结果() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "custom-async"));
+        try {
+            List<CompletableFuture<Void>> futures;
+            try (TDengineUtil util = builder().setAsyncExecutor(executor).build()) {
+                futures = appendRows(util);
+                util.await();
+                waitAll(futures);
+                // 查询也在指定的线程池中执行
+                String queryThread = util.querySqlAsync("select 1").thenApply(rows -> Thread.currentThread().getName())
+                        .get(5, TimeUnit.SECONDS);
+                Assertions.assertEquals("custom-async", queryThread);
+            }
+            Assertions.assertEquals(Collections.nCopies(ROWS, "custom-async"), callbackThreads);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void 线程池拒绝时不在刷写线程中完成结果() throws Exception {
+        List<CompletableFuture<Void>> futures;
+        try (TDengineUtil util = builder().setAsyncExecutor(runnable -> {
+            throw new RejectedExecutionException("模拟线程池已满");
+        }).build()) {
+            futures = appendRows(util);
+            util.await();
+            waitAll(futures);
+        }
+        Assertions.assertTrue(futures.stream().allMatch(CompletableFuture::isDone));
+        Assertions.assertEquals(ROWS, callbackThreads.size());
+        for (String thread : callbackThreads) {
+            Assertions.assertFalse(thread.startsWith("TDengineUtil-flush-"), thread);
+        }
+    }
+}
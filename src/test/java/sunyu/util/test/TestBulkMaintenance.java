@@ -0,0 +1,66 @@
+package sunyu.util.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sunyu.util.TDengineUtil;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量维护子表，不需要连接TDengine
+ */
+public class TestBulkMaintenance {
+    final FakeJdbc jdbc = new FakeJdbc();
+
+    @Test
+    void 边读取子表名边删除() {
+        int tables = 1000;
+        // 只能遍历一次的子表名，模拟流式读取
+        Iterable<String> tableNames = () -> new Iterator<String>() {
+            int i;
+
+            @Override
+            public boolean hasNext() {
+                return i < tables;
+            }
+
+            @Override
+            public String next() {
+                if (i >= tables) {
+                    throw new NoSuchElementException();
+                }
+                return "t" + i++;
+            }
+        };
+        AtomicLong lastTotal = new AtomicLong();
+        try (TDengineUtil util = TDengineUtil.builder().dataSource(jdbc.getDataSource()).setMaxSqlLength(1000).build()) {
+            TDengineUtil.BulkResult result = util.dropTables("frequent", tableNames, 4,
+                    (completed, failed, total) -> lastTotal.set(total));
+            Assertions.assertEquals(tables, result.getCompleted());
+            Assertions.assertTrue(result.getFailedTables().isEmpty());
+        }
+        Assertions.assertEquals(-1, lastTotal.get());
+        Assertions.assertTrue(jdbc.getSqls().size() > 1);
+        int dropped = 0;
+        for (String sql : jdbc.getSqls()) {
+            Assertions.assertTrue(sql.length() < 1000, sql);
+            dropped += sql.split("IF EXISTS").length - 1;
+        }
+        Assertions.assertEquals(tables, dropped);
+    }
+
+    @Test
+    void 删除失败的表单独记录() {
+        jdbc.setFailure(sql -> sql.contains("`t7`") ? new SQLException("Table does not exist", "42000") : null);
+        try (TDengineUtil util = TDengineUtil.builder().dataSource(jdbc.getDataSource()).setRetryBackoff(1, 10).build()) {
+            TDengineUtil.BulkResult result = util.dropTables("frequent", Arrays.asList("t1", "t7", "t9"), 2, null);
+            Assertions.assertEquals(2, result.getCompleted());
+            Assertions.assertEquals(Collections.singletonList("t7"), result.getFailedTables());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package sunyu.util.test;
+
+import cn.hutool.core.date.DatePattern;
+import cn.hutool.core.date.DateUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sunyu.util.TDengineUtil;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 最后值合并，不需要连接TDengine
+ */
+public class TestCoalesce {
+    static final long TS = 1768838400000L;
+    final FakeJdbc jdbc = new FakeJdbc();
+
+    TDengineUtil build(String precision) {
+        return TDengineUtil.builder().dataSource(jdbc.getDataSource()).setTimestampPrecision(precision).setFlushThreads(0)
+                .setCoalesceColumn("ts").build();
+    }
+
+    static Map<String, Object> row(Object ts, String column, Object value) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        if (ts != null) {
+            row.put("ts", ts);
+        }
+        row.put(column, value);
+        return row;
+    }
+
+    @Test
+    void 同一时间点的Date字符串和数字合并为一行() {
+        try (TDengineUtil util = build("ms")) {
+            util.appendInsert("frequent", "d_p", "t1", row(new Date(TS), "a", 1));
+            util.appendInsert("frequent", "d_p", "t1", row(DateUtil.format(new Date(TS), DatePattern.NORM_DATETIME_MS_PATTERN), "b", 2));
+            util.appendInsert("frequent", "d_p", "t1", row(TS, "c", 3));
+            util.await();
+        }
+        Assertions.assertEquals(1, jdbc.getSqls().size());
+        Assertions.assertEquals("INSERT INTO `frequent`.`d_p` (`tbname`,`ts`,`a`,`b`,`c`) values ('t1'," + TS + ",1,2,3)",
+                jdbc.getSqls().get(0).trim());
+    }
+
+    @Test
+    void 微秒精度的Date和数字合并为一行() {
+        try (TDengineUtil util = build("us")) {
+            util.appendInsert("frequent", "d_p", "t1", row(new Date(TS), "a", 1));
+            util.appendInsert("frequent", "d_p", "t1", row(TS * 1000, "b", 2));
+            // 毫秒数在微秒精度下是另一个时间点
+            util.appendInsert("frequent", "d_p", "t1", row(TS, "c", 3));
+            util.await();
+        }
+        Assertions.assertEquals(2, jdbc.writtenRows("('t1'"));
+    }
+
+    @Test
+    void 没有时间戳的行按写入顺序写入() {
+        try (TDengineUtil util = build("ms")) {
+            util.appendInsert("frequent", "d_p", "t1", row(TS, "a", 1));
+            util.appendInsert("frequent", "d_p", "t1", row(null, "a", 2));
+            util.appendInsert("frequent", "d_p", "t1", row(TS, "b", 3));
+            util.await();
+        }
+        // 没有时间戳的行不合并，也不会先于之前写入的行
+        Assertions.assertEquals(1, jdbc.getSqls().size());
+        String sql = jdbc.getSqls().get(0);
+        int first = sql.indexOf("('t1'," + TS + ",1,3)");
+        int second = sql.indexOf("('t1',2)");
+        Assertions.assertTrue(first >= 0 && second > first, sql);
+    }
+}
@@ -0,0 +1,58 @@
+package sunyu.util.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sunyu.util.ColumnBatch;
+import sunyu.util.TDengineUtil;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 列式查询结果，不需要连接TDengine
+ */
+public class TestColumnBatch {
+    final FakeJdbc jdbc = new FakeJdbc();
+
+    static Map<String, Object> row(long millis, int nanosOfMilli, String did, Double v, BigDecimal amount) {
+        Timestamp ts = new Timestamp(millis);
+        ts.setNanos(ts.getNanos() + nanosOfMilli);
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("ts", ts);
+        row.put("did", did);
+        row.put("v", v);
+        row.put("amount", amount);
+        return row;
+    }
+
+    @Test
+    void 时间戳保留毫秒以下的部分() {
+        jdbc.setQueryHandler(sql -> Arrays.asList(row(1768838400123L, 456789, "a", 1.5, new BigDecimal("12345678901234567.89")),
+                row(1768838400124L, 0, null, null, null)));
+        try (TDengineUtil util = TDengineUtil.builder().dataSource(jdbc.getDataSource()).build()) {
+            ColumnBatch batch = util.queryColumnar("select * from frequent.d_p");
+            Assertions.assertEquals(2, batch.getRowCount());
+            Assertions.assertEquals(ColumnBatch.ColumnType.TIMESTAMP, batch.getColumnType(0));
+            Assertions.assertArrayEquals(new long[]{1768838400123L, 1768838400124L}, batch.getLongs("ts"));
+            Assertions.assertArrayEquals(new int[]{456789, 0}, batch.getNanosOfMilli("ts"));
+
+            Assertions.assertEquals("a", batch.getString(1, 0));
+            Assertions.assertTrue(batch.isNull(1, 1));
+            Assertions.assertEquals(1.5, batch.getDoubles("v")[0]);
+            Assertions.assertTrue(batch.isNull(2, 1));
+        }
+    }
+
+    @Test
+    void 小数不损失精度() {
+        jdbc.setQueryHandler(sql -> Arrays.asList(row(1768838400123L, 0, "a", 1.5, new BigDecimal("12345678901234567.89"))));
+        try (TDengineUtil util = TDengineUtil.builder().dataSource(jdbc.getDataSource()).build()) {
+            ColumnBatch batch = util.queryColumnar("select * from frequent.d_p");
+            Assertions.assertEquals(ColumnBatch.ColumnType.OBJECT, batch.getColumnType(3));
+            Assertions.assertEquals(new BigDecimal("12345678901234567.89"), batch.getObjects("amount")[0]);
+        }
+    }
+}
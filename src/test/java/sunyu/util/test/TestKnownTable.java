@@ -0,0 +1,92 @@
+package sunyu.util.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sunyu.util.TDengineUtil;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 子表缓存省略 USING ... TAGS ，不需要连接TDengine
+ */
+public class TestKnownTable {
+    static final String FULL_T0 = "INSERT INTO `frequent`.`t0` USING `frequent`.`d_p` (`did`) TAGS ('a') (`ts`,`v`) VALUES (1000,1)";
+    final FakeJdbc jdbc = new FakeJdbc();
+    final AtomicInteger deadLetters = new AtomicInteger();
+
+    TDengineUtil.Builder builder() {
+        return TDengineUtil.builder().dataSource(jdbc.getDataSource()).setTimestampPrecision("ms").setFlushThreads(0)
+                .setDeadLetterHandler((insertSqlPre, rows, cause) -> deadLetters.addAndGet(rows.size()));
+    }
+
+    static void append(TDengineUtil util, String tableName, long ts, String did) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("ts", ts);
+        fields.put("v", 1);
+        Map<String, Object> tags = new LinkedHashMap<>();
+        tags.put("did", did);
+        util.appendInsert("frequent", "d_p", tableName, fields, tags);
+    }
+
+    @Test
+    void 写入成功后标签相同的行省略USING和TAGS() {
+        try (TDengineUtil util = builder().setKnownTableCache(100, 0).build()) {
+            append(util, "t0", 1000, "a");
+            append(util, "t1", 1000, "b");
+            util.await();
+            append(util, "t0", 1001, "a");
+            append(util, "t1", 1001, "b");
+            append(util, "t0", 1002, "a");
+            util.await();
+        }
+        Assertions.assertEquals(Arrays.asList(
+                FULL_T0 + "  `frequent`.`t1` USING `frequent`.`d_p` (`did`) TAGS ('b') (`ts`,`v`) VALUES (1000,1)",
+                "INSERT INTO `frequent`.`t0` (`ts`,`v`) VALUES (1001,1) (1002,1)  `frequent`.`t1` (`ts`,`v`) VALUES (1001,1)"),
+                Arrays.asList(jdbc.getSqls().get(0).trim(), jdbc.getSqls().get(1).trim()));
+    }
+
+    @Test
+    void 标签变化时重新带上TAGS() {
+        try (TDengineUtil util = builder().setKnownTableCache(100, 0).build()) {
+            append(util, "t0", 1000, "a");
+            util.await();
+            append(util, "t0", 1001, "c");
+            util.await();
+        }
+        Assertions.assertEquals(2, jdbc.getSqls().size());
+        Assertions.assertEquals("INSERT INTO `frequent`.`t0` USING `frequent`.`d_p` (`did`) TAGS ('c') (`ts`,`v`) VALUES (1001,1)",
+                jdbc.getSqls().get(1).trim());
+    }
+
+    @Test
+    void 子表不存在时换回完整头部重新写入() {
+        // 子表被删除，省略TAGS的写入返回子表不存在
+        jdbc.setFailure(sql -> sql.contains("USING") ? null : new SQLException("Table does not exist", "", 0x80002662));
+        try (TDengineUtil util = builder().setKnownTableCache(100, 0).build()) {
+            append(util, "t0", 1000, "a");
+            util.await();
+            append(util, "t0", 1001, "a");
+            util.await();
+        }
+        Assertions.assertEquals(0, deadLetters.get());
+        Assertions.assertEquals(Arrays.asList(FULL_T0,
+                "INSERT INTO `frequent`.`t0` USING `frequent`.`d_p` (`did`) TAGS ('a') (`ts`,`v`) VALUES (1001,1)"),
+                Arrays.asList(jdbc.getSqls().get(0).trim(), jdbc.getSqls().get(1).trim()));
+    }
+
+    @Test
+    void 不启用缓存时每次带上TAGS() {
+        try (TDengineUtil util = builder().build()) {
+            append(util, "t0", 1000, "a");
+            util.await();
+            append(util, "t0", 1001, "a");
+            util.await();
+        }
+        Assertions.assertEquals(2, jdbc.getSqls().size());
+        Assertions.assertTrue(jdbc.getSqls().stream().allMatch(sql -> sql.contains("USING `frequent`.`d_p`")));
+    }
+}
@@ -0,0 +1,54 @@
+package sunyu.util.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sunyu.util.TDengineUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓冲区最长停留时间，不需要连接TDengine
+ */
+public class TestLinger {
+    static final int ROWS = 10;
+    final FakeJdbc jdbc = new FakeJdbc();
+
+    void appendRows(TDengineUtil util) {
+        for (int i = 0; i < ROWS; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("ts", 1768838400000L + i);
+            row.put("v", i);
+            util.appendInsert("frequent", "d_p", "test" + (i % 3), row);
+        }
+    }
+
+    @Test
+    void 没有写满的缓冲区超过停留时间后写入() throws InterruptedException {
+        try (TDengineUtil util = TDengineUtil.builder().dataSource(jdbc.getDataSource()).setLingerMillis(100).build()) {
+            long start = System.currentTimeMillis();
+            appendRows(util);
+            long deadline = start + 5000;
+            while (jdbc.getSqls().isEmpty()) {
+                Assertions.assertTrue(System.currentTimeMillis() < deadline, "超过停留时间的缓冲区没有写入");
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            Assertions.assertTrue(System.currentTimeMillis() - start >= 100);
+            // 不调用 await，一个批次写入全部行
+            Assertions.assertEquals(1, jdbc.getSqls().size());
+            Assertions.assertEquals(ROWS, jdbc.writtenRows("('test"));
+        }
+    }
+
+    @Test
+    void 不设置停留时间时等到await才写入() throws InterruptedException {
+        try (TDengineUtil util = TDengineUtil.builder().dataSource(jdbc.getDataSource()).build()) {
+            appendRows(util);
+            TimeUnit.MILLISECONDS.sleep(200);
+            Assertions.assertTrue(jdbc.getSqls().isEmpty());
+            util.await();
+            Assertions.assertEquals(ROWS, jdbc.writtenRows("('test"));
+        }
+    }
+}
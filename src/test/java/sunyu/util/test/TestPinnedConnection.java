@@ -0,0 +1,56 @@
+package sunyu.util.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sunyu.util.TDengineUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 刷写线程固定连接的复用和归还，不需要连接TDengine
+ */
+public class TestPinnedConnection {
+    static final int ROWS = 200;
+    static final int FLUSH_THREADS = 2;
+    final FakeJdbc jdbc = new FakeJdbc();
+
+    TDengineUtil.Builder builder() {
+        return TDengineUtil.builder().dataSource(jdbc.getDataSource()).setTimestampPrecision("ms")
+                .setFlushThreads(FLUSH_THREADS).setMaxSqlLength(200);
+    }
+
+    void appendRows(TDengineUtil util) {
+        for (int i = 0; i < ROWS; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("ts", 1768838400000L + i);
+            row.put("v", i);
+            util.appendInsert("frequent", "d_p", "test" + (i % 10), row);
+        }
+    }
+
+    @Test
+    void 刷写线程复用连接关闭时归还() {
+        try (TDengineUtil util = builder().setPinnedConnections(true).build()) {
+            appendRows(util);
+            util.await();
+            Assertions.assertEquals(ROWS, jdbc.writtenRows("('test"));
+            // 多个批次，每个刷写线程最多占用一个连接，并且没有归还
+            Assertions.assertTrue(jdbc.getSqls().size() > FLUSH_THREADS);
+            Assertions.assertTrue(jdbc.getOpenedConnections() <= FLUSH_THREADS);
+            Assertions.assertEquals(0, jdbc.getClosedConnections());
+        }
+        Assertions.assertTrue(jdbc.getOpenedConnections() > 0);
+        Assertions.assertEquals(jdbc.getOpenedConnections(), jdbc.getClosedConnections());
+    }
+
+    @Test
+    void 不固定连接时每个批次借用和归还() {
+        try (TDengineUtil util = builder().build()) {
+            appendRows(util);
+            util.await();
+            Assertions.assertEquals(jdbc.getSqls().size(), jdbc.getOpenedConnections());
+            Assertions.assertEquals(jdbc.getOpenedConnections(), jdbc.getClosedConnections());
+        }
+    }
+}
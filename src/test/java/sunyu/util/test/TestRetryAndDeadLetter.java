@@ -0,0 +1,148 @@
+package sunyu.util.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sunyu.util.TDengineUtil;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 写入失败的重试、二分拆分和死信，不需要连接TDengine
+ */
+public class TestRetryAndDeadLetter {
+    static final int ROWS = 100;
+    final FakeJdbc jdbc = new FakeJdbc();
+    final List<String> deadLetters = Collections.synchronizedList(new ArrayList<>());
+    final List<Throwable> deadLetterCauses = Collections.synchronizedList(new ArrayList<>());
+
+    TDengineUtil.Builder builder() {
+        return TDengineUtil.builder().dataSource(jdbc.getDataSource()).setFlushThreads(0).setRetryBackoff(1, 10)
+                .setDeadLetterHandler((insertSqlPre, rows, cause) -> {
+                    deadLetters.addAll(rows);
+                    deadLetterCauses.add(cause);
+                });
+    }
+
+    void appendRows(TDengineUtil util) {
+        for (int i = 0; i < ROWS; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("ts", 1768838400000L + i);
+            row.put("v", i);
+            row.put("protocol", i == 37 ? "bad" : "xxx");
+            util.appendInsert("frequent", "d_p", "test" + (i % 10), row);
+        }
+    }
+
+    int writtenRows() {
+        return jdbc.writtenRows("('test");
+    }
+
+    @Test
+    void 不可重试的错误只有出错的行进入死信() {
+        AtomicInteger attempts = new AtomicInteger();
+        jdbc.setFailure(sql -> {
+            attempts.incrementAndGet();
+            // TDengine sql解析错误码 0x2600~0x26FF，异常信息中没有可以识别的关键字
+            return sql.contains("'bad'") ? new SQLException("value rejected", "", 0x80002600) : null;
+        });
+        try (TDengineUtil util = builder().build()) {
+            appendRows(util);
+        }
+        Assertions.assertEquals(1, deadLetters.size());
+        Assertions.assertTrue(deadLetters.get(0).contains("('test7',1768838400037,37,'bad')"));
+        Assertions.assertEquals(ROWS - 1, writtenRows());
+        for (String sql : jdbc.getSqls()) {
+            Assertions.assertFalse(sql.contains("'bad'"));
+        }
+        // 二分拆分，每层最多两次写入，不会重试
+        Assertions.assertTrue(attempts.get() <= 2 * 8, "写入次数: " + attempts.get());
+    }
+
+    @Test
+    void 可重试的错误重试后写入成功() {
+        AtomicInteger failures = new AtomicInteger(3);
+        jdbc.setFailure(sql -> failures.getAndDecrement() > 0
+                ? new SQLTransientConnectionException("connection lost", "08006") : null);
+        try (TDengineUtil util = builder().build()) {
+            appendRows(util);
+        }
+        Assertions.assertTrue(deadLetters.isEmpty());
+        Assertions.assertEquals(1, jdbc.getSqls().size());
+        Assertions.assertEquals(ROWS, writtenRows());
+    }
+
+    @Test
+    void 连接和会话失效的错误会重试() {
+        AtomicInteger failures = new AtomicInteger(2);
+        jdbc.setFailure(sql -> {
+            // 没有SQLState和错误码，只能根据异常信息判断
+            int remaining = failures.getAndDecrement();
+            if (remaining == 2) {
+                return new SQLException("invalid session");
+            }
+            return remaining == 1 ? new SQLException("Invalid connection") : null;
+        });
+        try (TDengineUtil util = builder().build()) {
+            appendRows(util);
+        }
+        Assertions.assertTrue(deadLetters.isEmpty());
+        // 重试整个批次，没有被当作数据错误二分拆分
+        Assertions.assertEquals(1, jdbc.getSqls().size());
+        Assertions.assertEquals(ROWS, writtenRows());
+    }
+
+    @Test
+    void 列和sql无效的错误不会重试() {
+        AtomicInteger attempts = new AtomicInteger();
+        jdbc.setFailure(sql -> {
+            attempts.incrementAndGet();
+            if (sql.contains("'bad'")) {
+                return new SQLException("Invalid column name: protocol");
+            }
+            return sql.contains(",7,") ? new SQLException("invalid SQL: value") : null;
+        });
+        try (TDengineUtil util = builder().build()) {
+            appendRows(util);
+        }
+        Assertions.assertEquals(2, deadLetters.size());
+        Assertions.assertEquals(ROWS - 2, writtenRows());
+        Assertions.assertTrue(attempts.get() <= 2 * 2 * 8, "写入次数: " + attempts.get());
+    }
+
+    @Test
+    void 重试用尽后整个批次进入死信() {
+        AtomicInteger attempts = new AtomicInteger();
+        jdbc.setFailure(sql -> {
+            attempts.incrementAndGet();
+            return new SQLException("server busy");
+        });
+        try (TDengineUtil util = builder().setMaxRetries(2).build()) {
+            appendRows(util);
+        }
+        // 可重试的错误不拆分批次
+        Assertions.assertEquals(3, attempts.get());
+        Assertions.assertEquals(ROWS, deadLetters.size());
+        Assertions.assertTrue(jdbc.getSqls().isEmpty());
+    }
+
+    @Test
+    void 默认重试次数有限() {
+        AtomicInteger attempts = new AtomicInteger();
+        jdbc.setFailure(sql -> {
+            attempts.incrementAndGet();
+            return new SQLException("server busy");
+        });
+        try (TDengineUtil util = builder().build()) {
+            appendRows(util);
+        }
+        Assertions.assertEquals(11, attempts.get());
+        Assertions.assertEquals(ROWS, deadLetters.size());
+    }
+}
@@ -0,0 +1,90 @@
+package sunyu.util.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sunyu.util.Router;
+import sunyu.util.TDengineUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多集群路由的队列背压，不需要连接TDengine
+ */
+public class TestRouter {
+    static final int ROWS = 100;
+    final FakeJdbc jdbc = new FakeJdbc();
+    final AtomicInteger deadLetters = new AtomicInteger();
+    /**
+     * 打开前执行sql一直阻塞，模拟集群变慢，路由线程写满缓冲区后阻塞，路由队列堆积
+     */
+    final CountDownLatch gate = new CountDownLatch(1);
+
+    TestRouter() {
+        jdbc.setFailure(sql -> {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+    }
+
+    Router.Builder builder() {
+        return TDengineUtil.router().setQueueCapacity(2)
+                .addRoute("a", TDengineUtil.builder().dataSource(jdbc.getDataSource()).setFlushThreads(0)
+                        .setMaxSqlLength(200)
+                        .setDeadLetterHandler((insertSqlPre, rows, cause) -> deadLetters.addAndGet(rows.size()))
+                        .build());
+    }
+
+    void appendRows(Router router) {
+        for (int i = 0; i < ROWS; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("ts", 1768838400000L + i);
+            row.put("v", i);
+            router.appendInsert("frequent", "d_p", "test" + (i % 10), row);
+        }
+    }
+
+    @Test
+    void 队列满时默认等待不丢弃数据() throws InterruptedException {
+        try (Router router = builder().build()) {
+            Thread writer = new Thread(() -> appendRows(router));
+            writer.start();
+            // 队列写满后写入线程阻塞等待
+            long deadline = System.currentTimeMillis() + 10000;
+            while (router.getQueueSize("a") < 2 || writer.getState() != Thread.State.WAITING) {
+                Assertions.assertTrue(System.currentTimeMillis() < deadline, "写入线程没有阻塞");
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            Assertions.assertEquals(0, router.getRejectedRows("a"));
+
+            gate.countDown();
+            writer.join();
+            router.await();
+            Assertions.assertEquals(0, deadLetters.get());
+            Assertions.assertEquals(0, router.getRejectedRows("a"));
+            Assertions.assertEquals(ROWS, jdbc.writtenRows("('test"));
+        }
+    }
+
+    @Test
+    void 设置不等待时队列满的行进入死信() {
+        try (Router router = builder().setMaxBlockMillis(0).build()) {
+            // 写入线程不阻塞，队列满的行交给死信处理器
+            appendRows(router);
+            long rejected = router.getRejectedRows("a");
+            Assertions.assertTrue(rejected > 0);
+            Assertions.assertEquals(rejected, deadLetters.get());
+
+            gate.countDown();
+            router.await();
+            Assertions.assertEquals(ROWS - rejected, jdbc.writtenRows("('test"));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package sunyu.util.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sunyu.util.TDengineUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 本地缓存文件的写入、重放和删除，不需要连接TDengine
+ */
+public class TestSpoolReplay {
+    final FakeJdbc jdbc = new FakeJdbc();
+    final AtomicInteger deadLetters = new AtomicInteger();
+    /**
+     * 不为null时执行sql抛出这个异常
+     */
+    volatile Throwable failure;
+
+    @TempDir
+    Path spoolDir;
+
+    TestSpoolReplay() {
+        jdbc.setFailure(sql -> failure);
+    }
+
+    /**
+     * 模拟TDengine不可用，连接失败是可重试的错误
+     */
+    static Throwable connectionLost() {
+        return new SQLTransientConnectionException("Unable to establish connection", "08006");
+    }
+
+    TDengineUtil build() {
+        return TDengineUtil.builder().dataSource(jdbc.getDataSource()).setFlushThreads(0)
+                .setMaxRetries(1).setRetryBackoff(1, 50)
+                .setDeadLetterHandler((insertSqlPre, rows, cause) -> deadLetters.addAndGet(rows.size()))
+                .setSpoolDir(spoolDir.toString()).build();
+    }
+
+    /**
+     * 等待重试次数用尽后暂停重放的时间过去
+     */
+    static void waitPause() {
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    List<String> files(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(spoolDir)) {
+            return files.map(file -> file.getFileName().toString()).filter(name -> name.endsWith(suffix)).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    void appendRows(TDengineUtil util, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("ts", 1768838400000L + i);
+            row.put("v", i);
+            row.put("did", "test" + (i % 10));
+            util.appendInsert("frequent", "d_p", "test" + (i % 10), row);
+        }
+    }
+
+    @Test
+    void 重试用尽后保留文件并重放() throws IOException {
+        try (TDengineUtil util = build()) {
+            failure = connectionLost();
+            appendRows(util, 0, 100);
+            util.await();
+            // 重试次数用尽的批次留在本地缓存文件中，不交给死信处理器
+            Assertions.assertEquals(1, files(".seg").size());
+            Assertions.assertTrue(jdbc.getSqls().isEmpty());
+            Assertions.assertEquals(0, deadLetters.get());
+
+            // 重放时仍然不可用，文件放回重放队列，不会改名为 .bad
+            waitPause();
+            util.await();
+            Assertions.assertEquals(1, files(".seg").size());
+            Assertions.assertTrue(files(".bad").isEmpty());
+            Assertions.assertEquals(0, deadLetters.get());
+
+            failure = null;
+            waitPause();
+            util.await();
+            Assertions.assertTrue(files(".seg").isEmpty());
+            Assertions.assertEquals(0, deadLetters.get());
+            Assertions.assertEquals(1, jdbc.getSqls().size());
+            Assertions.assertTrue(jdbc.getSqls().get(0).contains("('test0',1768838400000,0,'test0')"));
+            Assertions.assertTrue(jdbc.getSqls().get(0).contains("('test9',1768838400099,99,'test9')"));
+        }
+    }
+
+    @Test
+    void 不可重试的错误进入死信并删除文件() throws IOException {
+        try (TDengineUtil util = build()) {
+            jdbc.setFailure(sql -> sql.contains("'test3'") ? new SQLException("syntax error", "42000") : null);
+            appendRows(util, 0, 10);
+            util.await();
+            Assertions.assertEquals(1, deadLetters.get());
+            Assertions.assertEquals(9, jdbc.writtenRows("('test"));
+            Assertions.assertTrue(files(".seg").isEmpty());
+        }
+    }
+
+    @Test
+    void 重放出现未处理的异常后不再重放() throws IOException {
+        try (TDengineUtil util = build()) {
+            failure = new Error("模拟发送过程中未处理的异常");
+            appendRows(util, 0, 10);
+            Assertions.assertThrows(Error.class, util::await);
+            Assertions.assertEquals(1, files(".seg").size());
+
+            // 重放仍然出错，文件改名为 .bad ，await 不会一直重放
+            Assertions.assertThrows(Error.class, util::await);
+            Assertions.assertTrue(files(".seg").isEmpty());
+            Assertions.assertEquals(1, files(".bad").size());
+
+            failure = null;
+            appendRows(util, 10, 20);
+            util.await();
+            Assertions.assertEquals(1, jdbc.getSqls().size());
+            Assertions.assertEquals(1, files(".bad").size());
+        }
+    }
+
+    @Test
+    void 重启后重放上次没有写入的文件() throws IOException {
+        // 模拟程序崩溃，不关闭这个实例
+        TDengineUtil util = build();
+        failure = connectionLost();
+        appendRows(util, 0, 10);
+        util.await();
+        Assertions.assertEquals(1, files(".seg").size());
+
+        // 构建时重放目录中的文件
+        failure = null;
+        try (TDengineUtil restarted = build()) {
+            Assertions.assertTrue(files(".seg").isEmpty());
+            Assertions.assertEquals(1, jdbc.getSqls().size());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package sunyu.util.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sunyu.util.TDengineUtil;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 写入sql的编码，不需要连接TDengine
+ */
+public class TestSqlEncode {
+    final FakeJdbc jdbc = new FakeJdbc();
+
+    TDengineUtil build() {
+        return TDengineUtil.builder().dataSource(jdbc.getDataSource()).setTimestampPrecision("ms").setFlushThreads(0).build();
+    }
+
+    @Test
+    void v33写法() {
+        try (TDengineUtil util = build()) {
+            for (int i = 0; i < 2; i++) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("ts", new Date(1768838400000L + i));
+                row.put("v", i);
+                row.put("d", 1.5);
+                row.put("s", "it's \\ ok");
+                row.put("n", null);
+                row.put("b", true);
+                util.appendInsert("frequent", "d_p", "t" + i, row);
+            }
+            util.await();
+        }
+        // Date按照数据库精度写为数字时间戳，null列不写入，单引号和反斜杠转义
+        Assertions.assertEquals(1, jdbc.getSqls().size());
+        Assertions.assertEquals("INSERT INTO `frequent`.`d_p` (`tbname`,`ts`,`v`,`d`,`s`,`b`) values "
+                        + "('t0',1768838400000,0,1.5,'it\\'s \\\\ ok',true) ('t1',1768838400001,1,1.5,'it\\'s \\\\ ok',true)",
+                jdbc.getSqls().get(0).trim());
+    }
+
+    @Test
+    void 标签写法() {
+        try (TDengineUtil util = build()) {
+            Map<String, Object> fields = new LinkedHashMap<>();
+            fields.put("ts", 1768838400000L);
+            fields.put("s", "a'b\\c");
+            Map<String, Object> tags = new LinkedHashMap<>();
+            tags.put("did", "x'y\\z");
+            util.appendInsert("frequent", "d_p", "t0", fields, tags);
+            util.await();
+        }
+        Assertions.assertEquals(1, jdbc.getSqls().size());
+        Assertions.assertEquals("INSERT INTO `frequent`.`t0` USING `frequent`.`d_p` (`did`) TAGS ('x\\'y\\\\z') "
+                        + "(`ts`,`s`) VALUES (1768838400000,'a\\'b\\\\c')",
+                jdbc.getSqls().get(0).trim());
+    }
+}
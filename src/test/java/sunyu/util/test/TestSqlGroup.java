@@ -0,0 +1,65 @@
+package sunyu.util.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sunyu.util.TDengineUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 缓冲写入时按列名合并的分组和子表写入顺序，不需要连接TDengine
+ */
+public class TestSqlGroup {
+    final FakeJdbc jdbc = new FakeJdbc();
+
+    TDengineUtil build() {
+        return TDengineUtil.builder().dataSource(jdbc.getDataSource()).setTimestampPrecision("ms").setFlushThreads(0).build();
+    }
+
+    static Map<String, Object> row(long ts, Integer v, Double w) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("ts", ts);
+        if (v != null) {
+            row.put("v", v);
+        }
+        if (w != null) {
+            row.put("w", w);
+        }
+        return row;
+    }
+
+    @Test
+    void 列名相同的行共用一个头部() {
+        try (TDengineUtil util = build()) {
+            util.appendInsert("frequent", "d_p", "t1", row(1000, 1, 1.5));
+            util.appendInsert("frequent", "d_p", "t2", row(1000, 2, 2.5));
+            util.appendInsert("frequent", "d_p", "t1", row(1001, 3, 3.5));
+            util.await();
+        }
+        Assertions.assertEquals(1, jdbc.getSqls().size());
+        Assertions.assertEquals("INSERT INTO `frequent`.`d_p` (`tbname`,`ts`,`v`,`w`) values "
+                + "('t1',1000,1,1.5) ('t2',1000,2,2.5) ('t1',1001,3,3.5)", jdbc.getSqls().get(0).trim());
+    }
+
+    @Test
+    void 同一子表列不同时保持写入顺序() {
+        try (TDengineUtil util = build()) {
+            util.appendInsert("frequent", "d_p", "t1", row(1000, 1, 1.5));
+            util.appendInsert("frequent", "d_p", "t2", row(1000, 2, 2.5));
+            // 同一时间戳的部分列更新，必须在上一行之后写入
+            util.appendInsert("frequent", "d_p", "t1", row(1000, 3, null));
+            // 列名和第一个分组相同，但是不能回到第一个分组，否则会写在部分列更新之前
+            util.appendInsert("frequent", "d_p", "t1", row(1001, 4, 4.5));
+            util.await();
+        }
+        Assertions.assertEquals(1, jdbc.getSqls().size());
+        String sql = jdbc.getSqls().get(0);
+        int full = sql.indexOf("('t1',1000,1,1.5)");
+        int partial = sql.indexOf("('t1',1000,3)");
+        int next = sql.indexOf("('t1',1001,4,4.5)");
+        Assertions.assertTrue(full >= 0 && partial > full && next > partial, sql);
+        // 其他子表的行仍然合并到第一个分组
+        Assertions.assertTrue(sql.indexOf("('t2',1000,2,2.5)") < partial, sql);
+    }
+}
@@ -0,0 +1,86 @@
+package sunyu.util.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sunyu.util.TDengineUtil;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 参数绑定写入的分组和绑定顺序，不需要连接TDengine
+ */
+public class TestStmtWrite {
+    final FakeJdbc jdbc = new FakeJdbc();
+
+    TestStmtWrite() {
+        jdbc.setQueryHandler(sql -> {
+            if (sql.startsWith("DESCRIBE")) {
+                return Arrays.asList(column("ts", "TIMESTAMP", 8, ""), column("v", "INT", 4, ""),
+                        column("w", "DOUBLE", 8, ""), column("did", "VARCHAR", 64, "TAG"));
+            }
+            if (sql.contains("ins_databases")) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("precision", "ms");
+                return Collections.singletonList(row);
+            }
+            return Collections.emptyList();
+        });
+    }
+
+    static Map<String, Object> column(String field, String type, int length, String note) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("field", field);
+        row.put("type", type);
+        row.put("length", length);
+        row.put("note", note);
+        return row;
+    }
+
+    TDengineUtil build() {
+        return TDengineUtil.builder().dataSource(jdbc.getDataSource()).setFlushThreads(0)
+                .setWriteMode(TDengineUtil.WriteMode.STMT).build();
+    }
+
+    static Map<String, Object> row(String did, long ts, Integer v, Double w) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("ts", ts);
+        if (v != null) {
+            row.put("v", v);
+        }
+        if (w != null) {
+            row.put("w", w);
+        }
+        row.put("did", did);
+        return row;
+    }
+
+    @Test
+    void 同一子表列不同时保持写入顺序() {
+        try (TDengineUtil util = build()) {
+            util.appendInsert("frequent", "d_p", "t1", row("t1", 1000, 1, 1.5));
+            // 同一时间戳的部分列更新，必须在上一行之后写入
+            util.appendInsert("frequent", "d_p", "t1", row("t1", 1000, 2, null));
+            util.appendInsert("frequent", "d_p", "t1", row("t1", 1001, 3, 3.5));
+            util.await();
+        }
+        Assertions.assertEquals(Arrays.asList("`frequent`.`t1` [1000]", "`frequent`.`t1` [1000]", "`frequent`.`t1` [1001]"),
+                jdbc.getStmtBatches());
+    }
+
+    @Test
+    void 不同子表列相同时共用分组() {
+        try (TDengineUtil util = build()) {
+            util.appendInsert("frequent", "d_p", "t1", row("t1", 1000, 1, 1.5));
+            util.appendInsert("frequent", "d_p", "t2", row("t2", 1000, 2, 2.5));
+            util.appendInsert("frequent", "d_p", "t1", row("t1", 1001, 3, 3.5));
+            util.appendInsert("frequent", "d_p", "t2", row("t2", 1001, 4, null));
+            util.await();
+        }
+        // 两个子表的完整行在同一个分组中按子表绑定，t2的部分列行在之后的分组
+        Assertions.assertEquals(Arrays.asList("`frequent`.`t1` [1000, 1001]", "`frequent`.`t2` [1000]", "`frequent`.`t2` [1001]"),
+                jdbc.getStmtBatches());
+    }
+}
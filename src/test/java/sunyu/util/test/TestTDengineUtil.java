@@ -4,25 +4,35 @@ import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.date.DateField;
 import cn.hutool.core.date.DateTime;
 import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.StrUtil;
 import cn.hutool.log.Log;
 import cn.hutool.log.LogFactory;
 import cn.hutool.setting.dialect.Props;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sunyu.util.ColumnBatch;
+import sunyu.util.Router;
 import sunyu.util.TDengineUtil;
+import sunyu.util.TailReader;
 import sunyu.util.test.config.ConfigProperties;
 
+import java.nio.file.Path;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
 
 public class TestTDengineUtil {
     Log log = LogFactory.get();
 
     static Props props = ConfigProperties.getProps();
+    static HikariDataSource ds;
     static TDengineUtil tDengineUtil;
 
     @BeforeAll
@@ -34,7 +44,7 @@ public class TestTDengineUtil {
         config.setPassword(props.getStr("password"));
         config.setMinimumIdle(0);
         config.setMaximumPoolSize(10);
-        HikariDataSource ds = new HikariDataSource(config);
+        ds = new HikariDataSource(config);
         tDengineUtil = TDengineUtil.builder().dataSource(ds).setMaxSqlLength(1024 * 1024).setShowSql(true).build();
     }
 
@@ -67,6 +77,155 @@ public class TestTDengineUtil {
         }
     }
 
+    @Test
+    void t004() {
+        long count = tDengineUtil.querySql("select * from frequent.d_p limit 100000", row -> log.info("row: {}", row));
+        log.info("count: {}", count);
+
+        try (Stream<Map<String, Object>> rows = tDengineUtil.queryStream("select * from frequent.d_p limit 100000")) {
+            log.info("count: {}", rows.count());
+        }
+    }
+
+    @Test
+    void t005() {
+        ColumnBatch batch = tDengineUtil.queryColumnar("select * from frequent.d_p limit 100000");
+        log.info("rowCount: {} columnCount: {}", batch.getRowCount(), batch.getColumnCount());
+        for (int i = 0; i < batch.getColumnCount(); i++) {
+            log.info("column: {} type: {}", batch.getColumnName(i), batch.getColumnType(i));
+        }
+    }
+
+    @Test
+    void t006() {
+        long start = new DateTime("2026-01-20 00:00:00").getTime();
+        long end = new DateTime("2026-01-21 00:00:00").getTime();
+        List<String> sqls = tDengineUtil.sliceByTime("select * from frequent.d_p where _rowts >= {} and _rowts < {} order by _rowts", start, end, 24);
+        List<Map<String, Object>> rows = tDengineUtil.queryParallel(sqls, 10, "_rowts");
+        log.info("count: {}", rows.size());
+    }
+
+    @Test
+    void t007() {
+        TDengineUtil util = TDengineUtil.builder().dataSource(ds).setMetricsEnabled(true).build();
+        util.querySql("select * from frequent.d_p limit 10");
+        log.info("{}", util.getMetrics());
+        util.close();
+    }
+
+    @TDengineUtil.Table(database = "frequent", superTable = "d_p")
+    public static class Point {
+        @TDengineUtil.TableName
+        public String did;
+        @TDengineUtil.Ts("3014")
+        public Date ts;
+        @TDengineUtil.Column("2205")
+        public Integer value;
+        @TDengineUtil.Tag
+        public String protocol;
+    }
+
+    @Test
+    void t008() {
+        Point point = new Point();
+        point.did = "test";
+        point.ts = new DateTime("2026-01-20 00:00:00");
+        point.value = 1;
+        point.protocol = "xxx";
+        tDengineUtil.appendInsert(point);
+        tDengineUtil.await();
+        for (Point p : tDengineUtil.query("select tbname, `3014`, `2205`, protocol from frequent.d_p where did = 'test' limit 10", Point.class)) {
+            log.info("{} {} {} {}", p.did, p.ts, p.value, p.protocol);
+        }
+    }
+
+    @Test
+    void t009() {
+        TDengineUtil util = TDengineUtil.builder().dataSource(ds).setShowSql(true).setKnownTableCache(1000, 0).build();
+        Map<String, Object> tags = new HashMap<>();
+        tags.put("protocol", "xxx");
+        for (int i = 0; i < 3; i++) {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put("3014", new DateTime("2026-01-20 00:00:00").offsetNew(DateField.SECOND, i));
+            fields.put("2205", i);
+            util.appendInsert("frequent", "d_p", "test", fields, tags);
+            // 第一次带 USING ... TAGS ，之后省略
+            util.await();
+        }
+        util.close();
+    }
+
+    @Test
+    void t010() {
+        TDengineUtil util = TDengineUtil.builder().dataSource(ds).setAdaptiveSqlLength(64 * 1024, 200).build();
+        DateTime dt = new DateTime("2026-01-20 00:00:00");
+        for (int i = 0; i < 100000; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("3014", dt.offsetNew(DateField.MILLISECOND, i));
+            row.put("2205", i);
+            row.put("protocol", "xxx");
+            util.appendInsert("frequent", "d_p", "test" + (i % 100), row);
+        }
+        util.await();
+        log.info("sqlLengthLimit: {}", util.getSqlLengthLimit());
+        util.close();
+    }
+
+    /**
+     * 会删除子表，只在专门建立的测试库中执行，检查点写到临时目录
+     */
+    @Test
+    void t011(@TempDir Path tempDir) {
+        String db = "tdengine_util_bulk_test";
+        tDengineUtil.executeSql(StrUtil.format("CREATE DATABASE IF NOT EXISTS `{}`", db));
+        try {
+            tDengineUtil.executeSql(StrUtil.format("CREATE STABLE IF NOT EXISTS `{}`.`st` (ts TIMESTAMP, v INT) TAGS (did VARCHAR(64))", db));
+            for (int i = 0; i < 20; i++) {
+                tDengineUtil.executeSql(StrUtil.format("INSERT INTO `{}`.`t{}` USING `{}`.`st` TAGS ('t{}') VALUES (NOW, {}) "
+                        + "`{}`.`d_p_t{}` USING `{}`.`st` TAGS ('t{}') VALUES (NOW, {})", db, i, db, i, i, db, i, db, i, i));
+            }
+            List<String> tableNames = tDengineUtil.queryTableNames(db, "st", "table_name not like 'd_p_%'");
+            TDengineUtil.BulkResult result = tDengineUtil.copyAndDropTables(db, tableNames, tableName -> "d_p_" + tableName,
+                    5, tempDir.resolve("copy-checkpoint.txt").toString(),
+                    (completed, failed, total) -> log.info("{}/{} 失败 {}", completed, total, failed));
+            log.info("{}", result);
+            Assertions.assertTrue(result.getFailedTables().isEmpty());
+            Assertions.assertTrue(tDengineUtil.queryTableNames(db, "st", "table_name not like 'd_p_%'").isEmpty());
+
+            result = tDengineUtil.dropTables(db, tDengineUtil.queryTableNames(db, "st", null), 4, null);
+            Assertions.assertEquals(20, result.getCompleted());
+        } finally {
+            tDengineUtil.executeSql(StrUtil.format("DROP DATABASE IF EXISTS `{}`", db));
+        }
+    }
+
+    @Test
+    void t012() {
+        Router router = TDengineUtil.router()
+                .addRoute("a", TDengineUtil.builder().dataSource(ds).build())
+                .addRoute("b", TDengineUtil.builder().dataSource(ds).setShowSql(true).build())
+                .setDatabaseRoute("frequent", "a", "b")
+                .setMaxBlockMillis(1000)
+                .build();
+        Map<String, Object> row = new HashMap<>();
+        row.put("3014", new DateTime("2026-01-20 00:00:00"));
+        row.put("2205", 1);
+        row.put("protocol", "xxx");
+        router.appendInsert("frequent", "d_p", "test", row);
+        router.close();
+    }
+
+    @Test
+    void t013() {
+        TailReader reader = tDengineUtil.tailReader("frequent", "d_p", row -> log.info("row: {}", row))
+                .setPageSize(1000)
+                .setStartMillis(new DateTime("2026-01-20 00:00:00").getTime())
+                .setCheckpointFile("tail-checkpoint.txt")
+                .build();
+        log.info("rows: {} watermark: {}", reader.poll(), reader.getWatermark(null));
+        reader.close();
+    }
+
     @Test
     void 删除frequent数据库中不是d_p_开头的表() {
         while (true) {
@@ -0,0 +1,99 @@
+package sunyu.util.test;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import sunyu.util.TDengineUtil;
+import sunyu.util.TailReader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 增量读取的水位线，不需要连接TDengine
+ */
+public class TestTailReader {
+    static final Pattern AFTER = Pattern.compile("_rowts > (\\d+) order by _rowts limit (\\d+)");
+    static final Pattern AT = Pattern.compile("_rowts = (\\d+)");
+    final FakeJdbc jdbc = new FakeJdbc();
+    /**
+     * 超级表中的行，按时间戳排序，不同子表的时间戳可以相同
+     */
+    final List<Map<String, Object>> table = new ArrayList<>();
+    final List<String> handled = Collections.synchronizedList(new ArrayList<>());
+
+    TestTailReader() {
+        jdbc.setQueryHandler(sql -> {
+            Matcher after = AFTER.matcher(sql);
+            if (after.find()) {
+                long watermark = Long.parseLong(after.group(1));
+                return table.stream().filter(row -> (Long) row.get("tail_reader_ts") > watermark)
+                        .limit(Long.parseLong(after.group(2))).map(LinkedHashMap::new).collect(Collectors.toList());
+            }
+            Matcher at = AT.matcher(sql);
+            if (at.find()) {
+                long ts = Long.parseLong(at.group(1));
+                return table.stream().filter(row -> (Long) row.get("tail_reader_ts") == ts)
+                        .map(LinkedHashMap::new).collect(Collectors.toList());
+            }
+            return Collections.emptyList();
+        });
+    }
+
+    void addRow(String tbname, long ts) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("tbname", tbname);
+        row.put("tail_reader_ts", ts);
+        table.add(row);
+    }
+
+    @Test
+    void 同一个时间戳的行处理出错时不推进水位线() {
+        addRow("d1", 1);
+        addRow("d1", 2);
+        addRow("d2", 2);
+        addRow("d3", 2);
+        addRow("d1", 3);
+        boolean[] failed = new boolean[1];
+        try (TDengineUtil util = TDengineUtil.builder().dataSource(jdbc.getDataSource()).build();
+             TailReader reader = util.tailReader("frequent", "d_p", row -> {
+                 if (!failed[0] && handled.size() == 2) {
+                     // 时间戳2的第二行处理出错
+                     failed[0] = true;
+                     throw new IllegalStateException("模拟处理出错");
+                 }
+                 handled.add(String.valueOf(row.get("tbname")));
+             }).setPageSize(10).build()) {
+            Assertions.assertEquals(2, reader.poll());
+            // 时间戳2的行没有全部处理完，水位线停在上一个时间戳
+            Assertions.assertEquals(Long.valueOf(1), reader.getWatermark(null));
+
+            // 下次从时间戳2重新读取，已经处理过的行会再处理一次，不会跳过行
+            Assertions.assertEquals(4, reader.poll());
+            Assertions.assertEquals(Long.valueOf(3), reader.getWatermark(null));
+            Assertions.assertEquals(Arrays.asList("d1", "d1", "d1", "d2", "d3", "d1"), handled);
+        }
+    }
+
+    @Test
+    void 分页边界上时间戳相同的行留到下一页() {
+        addRow("d1", 1);
+        addRow("d1", 2);
+        addRow("d2", 2);
+        addRow("d3", 2);
+        addRow("d1", 3);
+        try (TDengineUtil util = TDengineUtil.builder().dataSource(jdbc.getDataSource()).build();
+             TailReader reader = util.tailReader("frequent", "d_p", row -> handled.add(String.valueOf(row.get("tbname"))))
+                     .setPageSize(3).build()) {
+            Assertions.assertEquals(5, reader.poll());
+            Assertions.assertEquals(Long.valueOf(3), reader.getWatermark(null));
+            Assertions.assertEquals(Arrays.asList("d1", "d1", "d2", "d3", "d1"), handled);
+        }
+    }
+}